@@ -0,0 +1,188 @@
+package com.sdc.three.ide;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuildCacheTest {
+
+    private static final String B = "class B { }";
+    private static final String BROKEN_B = "class B { int b = \"not an int\"; }";
+
+    @TempDir
+    Path dir;
+
+    private final DependencyGraph graph = new DependencyGraph();
+    private final CompileScheduler scheduler = new CompileScheduler(ToolProvider.getSystemJavaCompiler(), graph);
+    private Path out;
+    private List<File> files;
+
+    @BeforeEach
+    void writeSources() throws IOException {
+        final Path src = Files.createDirectory(dir.resolve("src"));
+        out = dir.resolve("out");
+        files = List.of(Files.writeString(src.resolve("A.java"), "class A { B b = new B(); }").toFile(),
+                Files.writeString(src.resolve("B.java"), B).toFile());
+    }
+
+    @Test
+    void restoresAfterSwitchingBack() throws IOException, InterruptedException {
+        final BuildCache cache = new BuildCache(dir.resolve("cache"), 1 << 20);
+        final Map<File, String> clean = build(cache);
+        assertEquals(Set.of("A.class", "B.class"), classes());
+
+        Files.writeString(files.get(1).toPath(), BROKEN_B);
+        final Map<File, String> broken = build(cache);
+        // A reads B through the sourcepath, so both change
+        assertNotEquals(clean.get(files.get(0)), broken.get(files.get(0)));
+        assertNotEquals(clean.get(files.get(1)), broken.get(files.get(1)));
+
+        Files.writeString(files.get(1).toPath(), B);
+        assertEquals(clean, keys());
+        deleteOutputs();
+        final List<LineError> found = new ArrayList<>();
+        for (File file : files)
+            assertEquals(new HashMap<>(), cache.restore(clean.get(file), file, out, found::add));
+        assertEquals(Set.of("A.class", "B.class"), classes());
+        assertTrue(found.isEmpty());
+
+        final HashMap<File, CompileError> errors = cache.restore(broken.get(files.get(1)), files.get(1), out, found::add);
+        assertEquals(Set.of(files.get(1)), errors.keySet());
+        assertEquals(1, errors.get(files.get(1)).getLines().size());
+        assertEquals(1, found.size());
+        assertEquals(3, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    void clearsStaleOutputs() throws IOException, InterruptedException {
+        final BuildCache cache = new BuildCache(dir.resolve("cache"), 1 << 20);
+        Files.writeString(files.get(1).toPath(), "class B { }\nclass Extra { }");
+        build(cache);
+        assertEquals(Set.of("A.class", "B.class", "Extra.class"), classes());
+
+        Files.writeString(files.get(1).toPath(), B);
+        build(cache);
+        assertEquals(Set.of("A.class", "B.class"), classes(), "compiled");
+        Files.writeString(files.get(1).toPath(), "class B { }\nclass Extra { }");
+        build(cache);
+        assertEquals(Set.of("A.class", "B.class", "Extra.class"), classes());
+        Files.writeString(files.get(1).toPath(), B);
+        build(cache);
+        assertEquals(Set.of("A.class", "B.class"), classes(), "restored");
+        assertEquals(4, cache.getHits());
+    }
+
+    @Test
+    void keysFollowInputs() throws IOException {
+        final Path src = dir.resolve("src");
+        final Path p = Files.createDirectories(src.resolve("p"));
+        final Path q = Files.createDirectories(src.resolve("q"));
+        final File c = Files.writeString(p.resolve("C.java"), "package p;\nimport q.*;\nclass C { D d; }").toFile();
+        final File d = Files.writeString(q.resolve("D.java"), "package q;\npublic class D { E e; }").toFile();
+        final Path e = Files.writeString(q.resolve("E.java"), "package q;\nclass E { }");
+        final Path unrelated = Files.writeString(q.resolve("F.java"), "package q;\nclass F { }");
+        final List<File> build = List.of(c, files.get(0));
+        final Map<File, String> before = BuildCache.keys(build, CompileScheduler.sourceOptions(build, graph), graph);
+
+        Files.writeString(unrelated, "package q;\nclass F { int f; }");
+        Files.writeString(files.get(1).toPath(), BROKEN_B);
+        final Map<File, String> after = BuildCache.keys(build, CompileScheduler.sourceOptions(build, graph), graph);
+        assertEquals(before.get(c), after.get(c), "C does not read F or B");
+        assertNotEquals(before.get(files.get(0)), after.get(files.get(0)), "A reads B");
+
+        Files.writeString(e, "package q;\nclass E { int e; }");
+        assertNotEquals(after.get(c), BuildCache.keys(build, CompileScheduler.sourceOptions(build, graph), graph).get(c),
+                "C reads E through D");
+        assertTrue(graph.contains(d));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws IOException, InterruptedException {
+        final BuildCache cache = new BuildCache(dir.resolve("cache"), 1 << 20);
+        final Map<File, String> clean = build(cache);
+        Files.writeString(files.get(1).toPath(), BROKEN_B);
+        final Map<File, String> broken = build(cache);
+        assertEquals(4, cache.getEntryCount());
+        assertEquals(sizeOnDisk(), cache.getSize());
+
+        final BuildCache reopened = new BuildCache(dir.resolve("cache"), 1);
+        assertEquals(4, reopened.getEntryCount());
+        assertEquals(sizeOnDisk(), reopened.getSize());
+        assertNotNull(reopened.restore(clean.get(files.get(0)), files.get(0), out, error -> {}));
+        Files.writeString(files.get(0).toPath(), "class A { }");
+        build(reopened);
+        assertEquals(1, reopened.getEntryCount(), "only the latest entry fits");
+        assertNull(reopened.restore(clean.get(files.get(0)), files.get(0), out, error -> {}));
+        assertNull(reopened.restore(broken.get(files.get(1)), files.get(1), out, error -> {}));
+        assertEquals(sizeOnDisk(), reopened.getSize());
+    }
+
+    /**
+     * Builds the files as a CompilerThread with a cache does: restores the sources in the cache, and compiles and adds
+     * the others
+     * @return the key of each file
+     */
+    private Map<File, String> build(BuildCache cache) throws IOException, InterruptedException {
+        final Map<File, String> keys = keys();
+        final List<File> missed = new ArrayList<>();
+        cache.clear(out, files);
+        for (File file : files) {
+            if (cache.restore(keys.get(file), file, out, error -> {}) == null)
+                missed.add(file);
+        }
+        if (missed.isEmpty())
+            return keys;
+        final Map<File, Set<Path>> outputs = new ConcurrentHashMap<>();
+        final List<LineError> diagnostics = new ArrayList<>();
+        final HashMap<File, CompileError> errors = scheduler.compile(missed, out, (compiled, total) -> {},
+                diagnostics::add, (source, output) -> outputs.computeIfAbsent(source, f -> new HashSet<>()).add(output));
+        for (File file : missed) {
+            final List<LineError> own = diagnostics.stream()
+                    .filter(error -> file.equals(error.getFile())).collect(Collectors.toList());
+            cache.put(keys.get(file), file, out, outputs.getOrDefault(DependencyGraph.key(file), Set.of()), own,
+                    errors.containsKey(file) ? Map.of(file, errors.get(file)) : Map.of());
+        }
+        return keys;
+    }
+
+    private Map<File, String> keys() throws IOException {
+        return BuildCache.keys(files, CompileScheduler.sourceOptions(files, graph), graph);
+    }
+
+    private Set<String> classes() throws IOException {
+        try (Stream<Path> list = Files.list(out)) {
+            return list.map(path -> path.getFileName().toString()).collect(Collectors.toSet());
+        }
+    }
+
+    private void deleteOutputs() throws IOException {
+        try (Stream<Path> list = Files.list(out)) {
+            for (Path path : (Iterable<Path>) list::iterator)
+                Files.delete(path);
+        }
+    }
+
+    private long sizeOnDisk() throws IOException {
+        try (Stream<Path> walk = Files.walk(dir.resolve("cache"))) {
+            return walk.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.sdc.three.ide;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompileErrorTest {
+
+    private static final String OUTPUT = String.join("\n",
+            "warning: [options] source value 8 is obsolete",
+            "src/pkg/A.java:3: error: cannot find symbol",
+            "        B b;",
+            "        ^",
+            "  symbol:   class B",
+            "  location: class A",
+            "src/pkg/A.java:7: warning: [removal] finalize() in Object has been deprecated",
+            "    protected void finalize() { }",
+            "                   ^",
+            "1 error",
+            "2 warnings");
+
+    @Test
+    void getLines() {
+        List<LineError> lines = new ArrayList<>(new CompileError(OUTPUT).getLines());
+        assertEquals(3, lines.size());
+
+        assertNull(lines.get(0).getFile());
+        assertEquals(LineError.Severity.WARNING, lines.get(0).getSeverity());
+
+        LineError symbol = lines.get(1);
+        assertEquals(new File("src/pkg/A.java"), symbol.getFile());
+        assertEquals(3, symbol.getLine());
+        assertEquals(9, symbol.getColumn());
+        assertEquals(LineError.Severity.ERROR, symbol.getSeverity());
+        assertEquals("cannot find symbol\nsymbol:   class B\nlocation: class A", symbol.getMessage());
+        assertEquals("A", symbol.getClassname());
+
+        LineError removal = lines.get(2);
+        assertEquals(7, removal.getLine());
+        assertEquals(20, removal.getColumn());
+        assertEquals(LineError.Severity.WARNING, removal.getSeverity());
+    }
+
+    @Test
+    void stream() {
+        CompileError error = new CompileError(Stream.of(OUTPUT.split("\n")));
+        assertEquals(3, error.getLines().size());
+        assertTrue(error.hasErrors());
+        // the source and caret lines are kept as javac wrote them
+        assertEquals(OUTPUT + "\n", error.getStackTrace());
+    }
+
+    @Test
+    void streamed() {
+        List<LineError> found = new ArrayList<>();
+        DiagnosticParser parser = new DiagnosticParser(found::add);
+        parser.accept("A.java:1: error: ';' expected");
+        parser.accept("class A { int a }");
+        assertTrue(found.isEmpty());
+        parser.accept("               ^");
+        parser.accept("B.java:1: error: ';' expected");
+        // the first error is passed on once the next one starts
+        assertEquals(1, found.size());
+        parser.finish();
+        assertEquals(2, found.size());
+    }
+}
@@ -0,0 +1,92 @@
+package com.sdc.three.ide;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompileSchedulerTest {
+
+    @TempDir
+    Path dir;
+
+    private final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    private StandardJavaFileManager fileManager;
+    private final List<LineError> found = new ArrayList<>();
+
+    @BeforeEach
+    void initFileManager() {
+        fileManager = javac.getStandardFileManager(null, null, null);
+    }
+
+    @Test
+    void compileBatch() throws IOException {
+        File a = write("A.java", "class A { B b = new B(); }");
+        File b = write("B.java", "class B { }");
+        HashMap<File, CompileError> errors = CompileScheduler.compileBatch(javac, List.of(a, b), fileManager, List.of(), found::add);
+        assertTrue(errors.isEmpty());
+        assertTrue(dir.resolve("A.class").toFile().exists());
+        assertTrue(dir.resolve("B.class").toFile().exists());
+    }
+
+    @Test
+    void compileBatchErrors() throws IOException {
+        File a = write("A.java", "class A { int a = \"not an int\"; }");
+        File b = write("B.java", "class B { }");
+        HashMap<File, CompileError> errors = CompileScheduler.compileBatch(javac, List.of(a, b), fileManager, List.of(), found::add);
+        assertEquals(1, errors.size());
+        CompileError error = errors.get(a);
+        assertNotNull(error);
+        assertEquals(1, error.getLines().size());
+        LineError line = error.getLines().iterator().next();
+        assertEquals(1, line.getLine());
+        assertEquals(19, line.getColumn());
+        assertEquals("A", line.getClassname());
+        assertEquals(List.of(line), found);
+    }
+
+    @Test
+    void split() throws IOException, InterruptedException {
+        final DependencyGraph graph = new DependencyGraph();
+        final List<File> files = new ArrayList<>();
+        for (int i = 0; i < CompileScheduler.MIN_UNIT_SIZE * 2; i++) {
+            // pairs of files depending on each other
+            String other = "C" + (i ^ 1);
+            files.add(write("C" + i + ".java", "class C" + i + " { " + other + " other; }"));
+        }
+        final CompileScheduler scheduler = new CompileScheduler(javac, graph);
+        CompileScheduler.sourceOptions(files, graph);
+        assertEquals(List.of(files), scheduler.split(files, 1));
+        List<List<File>> units = scheduler.split(files, 4);
+        assertEquals(2, units.size());
+        assertEquals(files.size() / 2, units.get(0).size());
+        for (List<File> unit : units) {
+            for (File file : unit)
+                assertTrue(unit.contains(new File(file.getParent(), otherName(file))));
+        }
+
+        HashMap<File, CompileError> errors = scheduler.compile(files, (compiled, total) -> {}, found::add);
+        assertTrue(errors.isEmpty());
+    }
+
+    private static String otherName(File file) {
+        int i = Integer.parseInt(file.getName().replaceAll("\\D", ""));
+        return "C" + (i ^ 1) + ".java";
+    }
+
+    private File write(String name, String source) throws IOException {
+        return Files.writeString(dir.resolve(name), source).toFile();
+    }
+}
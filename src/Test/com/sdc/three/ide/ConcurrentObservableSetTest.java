@@ -0,0 +1,79 @@
+package com.sdc.three.ide;
+
+import javafx.beans.InvalidationListener;
+import javafx.collections.SetChangeListener;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentObservableSetTest {
+
+    private final Queue<Runnable> deliveries = new ArrayDeque<>();
+    private final ConcurrentObservableSet<String> set = new ConcurrentObservableSet<>(deliveries::add);
+    private final List<String> changes = new ArrayList<>();
+    private int invalidations;
+
+    private void listen() {
+        set.addListener((SetChangeListener<String>) change -> changes.add(change.toString()));
+        set.addListener((InvalidationListener) observable -> invalidations++);
+    }
+
+    private void deliver() {
+        while (!deliveries.isEmpty())
+            deliveries.remove().run();
+    }
+
+    @Test
+    void deduplicates() {
+        assertTrue(set.add("a"));
+        assertFalse(set.add("a"));
+        assertTrue(set.add("b"));
+        assertEquals(2, set.size());
+        assertTrue(set.remove("a"));
+        assertFalse(set.remove("a"));
+        assertFalse(set.contains("a"));
+        assertTrue(deliveries.isEmpty()); // no listeners, nothing recorded
+    }
+
+    @Test
+    void batches() {
+        listen();
+        set.add("a");
+        set.add("b");
+        set.add("a");
+        set.add("c");
+        set.remove("c"); // cancels out
+        assertEquals(1, deliveries.size());
+        deliver();
+        assertEquals(List.of("added a", "added b"), changes);
+        assertEquals(1, invalidations);
+
+        changes.clear();
+        set.remove("a");
+        set.add("a"); // back as it was
+        set.remove("b");
+        deliver();
+        assertEquals(List.of("removed b"), changes);
+        assertEquals(2, invalidations);
+    }
+
+    @Test
+    void iteratorRemove() {
+        listen();
+        set.add("a");
+        deliver();
+        changes.clear();
+        Iterator<String> iterator = set.iterator();
+        iterator.next();
+        iterator.remove();
+        deliver();
+        assertTrue(set.isEmpty());
+        assertEquals(List.of("removed a"), changes);
+    }
+}
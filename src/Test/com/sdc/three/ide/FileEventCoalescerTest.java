@@ -0,0 +1,74 @@
+package com.sdc.three.ide;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileEventCoalescerTest {
+
+    private final Path a = Path.of("a");
+    private final Path b = Path.of("b");
+
+    @Test
+    void merge() {
+        assertNull(FileEventCoalescer.merge(FileEvent.ADDED, FileEvent.REMOVED));
+        assertEquals(FileEvent.ADDED, FileEventCoalescer.merge(FileEvent.ADDED, FileEvent.MODIFIED));
+        assertEquals(FileEvent.MODIFIED, FileEventCoalescer.merge(FileEvent.REMOVED, FileEvent.ADDED));
+        assertEquals(FileEvent.MODIFIED, FileEventCoalescer.merge(FileEvent.MODIFIED, FileEvent.MODIFIED));
+        assertEquals(FileEvent.REMOVED, FileEventCoalescer.merge(FileEvent.MODIFIED, FileEvent.REMOVED));
+    }
+
+    @Test
+    void drain() {
+        FileEventCoalescer coalescer = new FileEventCoalescer();
+        coalescer.add(a, FileEvent.MODIFIED);
+        coalescer.add(b, FileEvent.ADDED);
+        coalescer.add(a, FileEvent.MODIFIED);
+        coalescer.add(a, FileEvent.MODIFIED);
+        assertEquals(2, coalescer.size());
+
+        Map<Path, FileEvent> drained = coalescer.drain();
+        assertTrue(coalescer.isEmpty());
+        assertEquals(List.of(a, b), List.copyOf(drained.keySet()));
+        assertEquals(FileEvent.MODIFIED, drained.get(a));
+        assertEquals(FileEvent.ADDED, drained.get(b));
+    }
+
+    @Test
+    void cancel() {
+        FileEventCoalescer coalescer = new FileEventCoalescer();
+        coalescer.add(a, FileEvent.ADDED);
+        coalescer.add(a, FileEvent.MODIFIED);
+        coalescer.add(a, FileEvent.REMOVED);
+        assertTrue(coalescer.isEmpty());
+    }
+
+    @Test
+    void replaced(@TempDir Path temp) throws IOException {
+        final Path file = Files.createFile(temp.resolve("file"));
+        final Path dir = Files.createDirectory(temp.resolve("dir"));
+        final FileEventCoalescer coalescer = new FileEventCoalescer();
+        coalescer.add(file, FileEvent.REMOVED);
+        coalescer.add(file, FileEvent.ADDED);
+        coalescer.add(dir, FileEvent.REMOVED);
+        coalescer.add(dir, FileEvent.ADDED);
+        assertEquals(Map.of(dir, FileEvent.REMOVED), coalescer.drainReplaced());
+        assertEquals(Map.of(file, FileEvent.MODIFIED, dir, FileEvent.ADDED), coalescer.drain());
+        assertTrue(coalescer.isEmpty());
+
+        // replaced then removed again is only removed
+        coalescer.add(dir, FileEvent.REMOVED);
+        coalescer.add(dir, FileEvent.ADDED);
+        coalescer.add(dir, FileEvent.REMOVED);
+        assertFalse(coalescer.isEmpty());
+        assertEquals(Map.of(dir, FileEvent.REMOVED), coalescer.drainReplaced());
+        assertEquals(Map.of(), coalescer.drain());
+    }
+}
@@ -0,0 +1,74 @@
+package com.sdc.three.ide;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileFinderTest {
+
+    @Test
+    void ranksMatches() {
+        final FileFinder finder = new FileFinder(Path.of("/root"), List.of(
+                "src/main/java/com/sdc/three/ide/Workspace.java",
+                "src/main/java/com/sdc/three/ide/WorkspaceViewer.java",
+                "src/main/java/com/sdc/three/ide/WatchThreadPool.java",
+                "docs/workspace/notes.txt",
+                "README.md"));
+        assertEquals(List.of(
+                "src/main/java/com/sdc/three/ide/WorkspaceViewer.java",
+                "src/main/java/com/sdc/three/ide/Workspace.java"), finder.find("WsV", 5));
+        assertEquals("src/main/java/com/sdc/three/ide/WatchThreadPool.java", finder.find("wtp", 1).get(0));
+        assertEquals("src/main/java/com/sdc/three/ide/Workspace.java", finder.find("workspace.java", 1).get(0));
+        assertEquals("docs/workspace/notes.txt", finder.find("ws/notes", 5).get(0));
+        assertEquals(List.of("README.md"), finder.find("rdm", 5));
+        assertEquals(List.of(), finder.find("zzz", 5));
+        assertEquals(4, finder.find("a", 4).size());
+    }
+
+    @Test
+    void searchesChunksInParallel() {
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 5 * FileFinder.CHUNK; i++)
+            paths.add("module" + (i % 100) + "/src/File" + i + ".java");
+        final FileFinder finder = new FileFinder(Path.of("/root"), paths);
+        assertEquals(List.of("module42/src/File12342.java"), finder.find("File12342.java", 1));
+        final List<String> found = finder.find("file7", 10);
+        assertEquals(10, found.size());
+        assertEquals("module7/src/File7.java", found.get(0), "the shortest of the best matches is first");
+    }
+
+    @Test
+    void followsEvents(@TempDir Path dir) throws IOException, InvalidFileException {
+        Files.createFile(dir.resolve("Main.java"));
+        final Workspace workspace = new Workspace(dir.toFile());
+        final FileFinder finder = new FileFinder(workspace);
+        assertEquals(1, finder.size());
+
+        final Path deep = Files.createDirectories(dir.resolve("lib/deep"));
+        Files.createFile(deep.resolve("Helper.java"));
+        Files.createFile(deep.resolve("Other.java"));
+        workspace.filesystemChanged(dir.resolve("lib"), FileEvent.ADDED);
+        assertEquals(3, finder.size());
+        assertEquals(List.of("lib/deep/Helper.java"), finder.find("helper", 5));
+        assertEquals(dir.resolve("lib/deep/Helper.java"), finder.resolve(finder.find("helper", 5).get(0)));
+
+        Files.delete(deep.resolve("Helper.java"));
+        Files.delete(deep.resolve("Other.java"));
+        Files.delete(deep);
+        Files.delete(deep.getParent());
+        workspace.filesystemChanged(Map.of(dir.resolve("lib"), FileEvent.REMOVED));
+        assertEquals(1, finder.size());
+        assertEquals(List.of(), finder.find("helper", 5));
+        Files.delete(dir.resolve("Main.java"));
+        workspace.filesystemChanged(dir.resolve("Main.java"), FileEvent.REMOVED);
+        assertEquals(0, finder.size());
+    }
+}
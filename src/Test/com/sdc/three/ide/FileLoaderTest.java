@@ -0,0 +1,66 @@
+package com.sdc.three.ide;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileLoaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void pages() throws IOException, InterruptedException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            text.append("line ").append(i).append(" \u00e9\u20ac\ud83d\ude00\n");
+        Path file = Files.writeString(dir.resolve("A.java"), text);
+
+        // windows of 7 bytes split the multi-byte chars
+        PieceTable editor = new PieceTable();
+        List<Boolean> firsts = new ArrayList<>();
+        long[] loaded = new long[1];
+        new FileLoader(file, StandardCharsets.UTF_8, 5, 7).load((page, first) -> {
+            assertTrue(page.length() <= 5);
+            firsts.add(first);
+            if (first)
+                editor.replaceText(page);
+            else
+                editor.appendText(page);
+        }, (done, total) -> loaded[0] = done, () -> false);
+
+        assertEquals(text.toString(), editor.getText().toString());
+        assertEquals(Files.size(file), loaded[0]);
+        assertTrue(firsts.get(0));
+        assertFalse(firsts.subList(1, firsts.size()).contains(true));
+        assertEquals(201, editor.getLineCount());
+    }
+
+    @Test
+    void empty() throws IOException, InterruptedException {
+        Path file = Files.createFile(dir.resolve("empty"));
+        List<String> pages = new ArrayList<>();
+        new FileLoader(file, StandardCharsets.UTF_8).load((page, first) -> {
+            assertTrue(first);
+            pages.add(page);
+        }, (done, total) -> {}, () -> false);
+        assertEquals(List.of(""), pages);
+    }
+
+    @Test
+    void cancelled() throws IOException, InterruptedException {
+        Path file = Files.writeString(dir.resolve("big"), "x".repeat(100));
+        List<String> pages = new ArrayList<>();
+        new FileLoader(file, StandardCharsets.UTF_8, 10, 1 << 20).load((page, first) -> pages.add(page),
+                (done, total) -> {}, () -> pages.size() == 3);
+        assertEquals(3, pages.size());
+    }
+}
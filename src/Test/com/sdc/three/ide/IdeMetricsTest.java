@@ -0,0 +1,57 @@
+package com.sdc.three.ide;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdeMetricsTest {
+
+    @Test
+    void registered() throws Exception {
+        IdeMetrics.get().saved(3_000_000);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(IdeMetrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        assertTrue((Long) server.getAttribute(name, "SaveCount") >= 1);
+        assertTrue((Double) server.getAttribute(name, "MaxSaveMillis") >= 3.0);
+        assertNotNull(server.getAttribute(name, "WatchEventsPerSecond"));
+    }
+
+    @Test
+    void recordsEvents(@TempDir Path temp) throws Exception {
+        Workspace workspace = new Workspace(temp.toFile());
+        long before = IdeMetrics.get().getWatchEventCount();
+        long errors = IdeMetrics.get().getErrorCount();
+        Path file = Files.createTempFile("recording", ".jfr"); // outside the workspace, so it makes no event
+        try (Recording recording = new Recording()) {
+            recording.enable("com.sdc.three.ide.WatchBurst");
+            recording.enable("com.sdc.three.ide.Error");
+            recording.start();
+            workspace.filesystemChanged(temp.resolve("A.java"), FileEvent.ADDED);
+            workspace.filesystemChanged(temp.resolve("Missing.java"), FileEvent.REMOVED); // already gone, not an error
+            IdeMetrics.error("Failed to list " + temp.resolve("Missing"));
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        assertTrue(IdeMetrics.get().getWatchEventCount() >= before + 2);
+        assertEquals(errors + 1, IdeMetrics.get().getErrorCount());
+        assertEquals(2, IdeMetrics.get().getTreeSize()); // the root and A.java
+
+        assertEquals(2, events.stream().filter(e -> e.getEventType().getName().endsWith("WatchBurst")).count());
+        assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().endsWith("Error")
+                && e.getString("message").contains("Missing")));
+    }
+}
@@ -0,0 +1,151 @@
+package com.sdc.three.ide;
+
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalCompilerTest {
+
+    @TempDir
+    Path dir;
+
+    private RecordingCompiler recorder;
+    private DependencyGraph graph;
+    private IncrementalCompiler compiler;
+    private File a;
+    private File b;
+    private File c;
+
+    @BeforeEach
+    void initFiles() throws IOException {
+        Files.createDirectories(dir.resolve("pkg"));
+        a = write("pkg/A.java", "package pkg;\nclass A { B b; /* C */ String s = \"C\"; }");
+        b = write("pkg/B.java", "package pkg;\nclass B { }");
+        c = write("pkg/C.java", "package pkg;\nclass C { class Inner { } }");
+        recorder = new RecordingCompiler();
+        graph = new DependencyGraph();
+        compiler = new IncrementalCompiler(recorder, graph);
+    }
+
+    @Test
+    void graph() throws IOException {
+        assertTrue(graph.update(a));
+        assertTrue(graph.update(b));
+        assertTrue(graph.update(c));
+        assertFalse(graph.update(a));
+        assertEquals("pkg", graph.getPackage(a));
+        assertEquals(dir.toAbsolutePath().normalize(), graph.getSourceRoot(a));
+        assertEquals(Set.of("C", "Inner"), graph.getDeclaredTypes(c));
+        assertEquals(Set.of(DependencyGraph.key(a)), graph.getDependents(b));
+        // comments and strings are not references
+        assertTrue(graph.getDependents(c).isEmpty());
+    }
+
+    @Test
+    void compileOnlyChanged() throws IOException {
+        compiler.compile(List.of(a, b, c));
+        assertEquals(List.of(a, b, c), recorder.compiled);
+        compiler.getError();
+
+        compiler.compile(List.of(a, b, c));
+        assertEquals(List.of(), recorder.compiled);
+        compiler.getError();
+
+        write("pkg/B.java", "package pkg;\nclass B { int changed; }");
+        assertTrue(b.setLastModified(b.lastModified() + 1000));
+        compiler.compile(List.of(a, b, c));
+        assertEquals(Set.of(a, b), Set.copyOf(recorder.compiled));
+    }
+
+    @Test
+    void transitiveDependents() throws IOException {
+        final File base = write("pkg/Base.java", "package pkg;\nclass Base { void m() { } }");
+        final File mid = write("pkg/Mid.java", "package pkg;\nclass Mid extends Base { }");
+        final File leaf = write("pkg/Leaf.java", "package pkg;\nclass Leaf { void f(Mid mid) { mid.m(); } }");
+        compiler.compile(List.of(base, mid, leaf, c));
+        compiler.getError();
+
+        // Leaf calls m through Mid, so removing it from Base breaks Leaf
+        write("pkg/Base.java", "package pkg;\nclass Base { }");
+        assertTrue(base.setLastModified(base.lastModified() + 1000));
+        compiler.compile(List.of(base, mid, leaf, c));
+        assertEquals(Set.of(base, mid, leaf), Set.copyOf(recorder.compiled));
+    }
+
+    @Test
+    void uncollectedRebuilt() {
+        compiler.compile(List.of(a, b, c));
+        compiler.compile(List.of(a, b, c));
+        assertEquals(List.of(a, b, c), recorder.compiled);
+    }
+
+    @Test
+    void fileEvents() throws IOException, InvalidFileException {
+        compiler = new IncrementalCompiler(recorder, graph, new Workspace(dir.toFile()));
+        compiler.compile(List.of(a, b, c));
+        compiler.getError();
+
+        write("pkg/C.java", "package pkg;\nclass C { }");
+        compiler.filesystemChanged(c.toPath(), FileEvent.MODIFIED);
+        compiler.compile(List.of(a, b, c));
+        assertEquals(List.of(c), recorder.compiled);
+        compiler.getError();
+
+        compiler.filesystemChanged(b.toPath(), FileEvent.REMOVED);
+        compiler.compile(List.of(a, c));
+        assertEquals(List.of(a), recorder.compiled);
+    }
+
+    private File write(String name, String source) throws IOException {
+        return Files.writeString(dir.resolve(name), source).toFile();
+    }
+
+    private static class RecordingCompiler implements Compiler {
+
+        private List<File> compiled;
+
+        @Override
+        public void compile(List<File> files) {
+            compiled = files;
+        }
+
+        @Override
+        public HashMap<File, CompileError> getError() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public ReadOnlyDoubleProperty progressProperty() {
+            return new ReadOnlyDoubleWrapper(1.0);
+        }
+
+        @Override
+        public double getProgress() {
+            return 1.0;
+        }
+
+        @Override
+        public ReadOnlyBooleanProperty doneProperty() {
+            return new ReadOnlyBooleanWrapper(true);
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+    }
+}
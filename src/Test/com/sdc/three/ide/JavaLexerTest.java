@@ -0,0 +1,50 @@
+package com.sdc.three.ide;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JavaLexerTest {
+
+    private final List<String> tokens = new ArrayList<>();
+
+    private int lex(String line, int state) {
+        tokens.clear();
+        return JavaLexer.lexLine(line, 0, line.length(), state, (styleClass, length) -> {
+            assertTrue(length > 0);
+            tokens.add(styleClass + ":" + length);
+        });
+    }
+
+    @Test
+    void tokens() {
+        assertEquals(JavaLexer.CODE, lex("public int a = 10; // done", JavaLexer.CODE));
+        assertEquals(List.of("keyword:6", "null:1", "keyword:3", "null:5", "number:2", "null:2", "comment:7"), tokens);
+
+        lex("@Override String s = \"a\\\"b\";", JavaLexer.CODE);
+        assertEquals(List.of("annotation:9", "null:12", "string:6", "null:1"), tokens);
+
+        lex("char c = '\\'';", JavaLexer.CODE);
+        assertEquals(List.of("keyword:4", "null:5", "string:4", "null:1"), tokens);
+    }
+
+    @Test
+    void states() {
+        assertEquals(JavaLexer.BLOCK_COMMENT, lex("int a; /* open", JavaLexer.CODE));
+        assertEquals(List.of("keyword:3", "null:4", "comment:7"), tokens);
+        assertEquals(JavaLexer.BLOCK_COMMENT, lex("still comment", JavaLexer.BLOCK_COMMENT));
+        assertEquals(List.of("comment:13"), tokens);
+        assertEquals(JavaLexer.CODE, lex("end */ return;", JavaLexer.BLOCK_COMMENT));
+        assertEquals(List.of("comment:6", "null:1", "keyword:6", "null:1"), tokens);
+
+        assertEquals(JavaLexer.TEXT_BLOCK, lex("s = \"\"\"", JavaLexer.CODE));
+        assertEquals(JavaLexer.TEXT_BLOCK, lex("  /* not a comment", JavaLexer.TEXT_BLOCK));
+        assertEquals(List.of("string:18"), tokens);
+        assertEquals(JavaLexer.CODE, lex("\"\"\";", JavaLexer.TEXT_BLOCK));
+        assertEquals(JavaLexer.CODE, lex("", JavaLexer.CODE));
+        assertTrue(tokens.isEmpty());
+    }
+}
@@ -0,0 +1,69 @@
+package com.sdc.three.ide;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PathTreeItemTest {
+
+    @Test
+    void extensionOf() {
+        assertEquals(".java", PathTreeItem.extensionOf("Main.java"));
+        assertEquals(".tar.gz", PathTreeItem.extensionOf("a.tar.gz"));
+        assertEquals(".gitignore", PathTreeItem.extensionOf(".gitignore"));
+        assertEquals("..", PathTreeItem.extensionOf("a.."));
+        assertEquals("", PathTreeItem.extensionOf("file."));
+        assertEquals("", PathTreeItem.extensionOf("Makefile"));
+    }
+
+    @Test
+    void cached() {
+        PathTreeItem file = new PathTreeItem(Path.of("dir", "B.java"), false);
+        assertEquals("B.java", file.getName());
+        assertEquals(".java", file.getExtension());
+        assertSame(file.getName(), file.getName());
+        assertTrue(file.isLeaf());
+
+        PathTreeItem directory = new PathTreeItem(Path.of("dir.d"), true);
+        assertEquals("", directory.getExtension());
+        assertFalse(directory.isLeaf());
+    }
+
+    @Test
+    void loadedOnce() throws InterruptedException {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        PathTreeItem directory = new PathTreeItem(Path.of("dir"), true, item -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // the loader adds the children through getChildren, as Workspace does
+            item.getChildren().add(new PathTreeItem(Path.of("dir", "A.java"), false));
+        });
+        BlockingQueue<Integer> sizes = new LinkedBlockingQueue<>();
+        new Thread(() -> sizes.add(directory.getChildren().size())).start();
+        assertTrue(loading.await(2, TimeUnit.SECONDS));
+        assertFalse(directory.isLoaded());
+
+        // a second reader waits for the children rather than seeing the empty list
+        new Thread(() -> sizes.add(directory.getChildren().size())).start();
+        assertNull(sizes.poll(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertEquals(1, sizes.poll(2, TimeUnit.SECONDS));
+        assertEquals(1, sizes.poll(2, TimeUnit.SECONDS));
+        assertTrue(directory.isLoaded());
+        assertEquals(1, loads.get());
+    }
+}
@@ -0,0 +1,94 @@
+package com.sdc.three.ide;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PieceTableTest {
+
+    @Test
+    void edits() {
+        PieceTable table = new PieceTable("hello\nworld");
+        table.insertText(5, ",");
+        table.insertText(6, " there");
+        assertEquals("hello, there\nworld", table.getText().toString());
+        table.deleteText(0, 7);
+        assertEquals("there\nworld", table.getText().toString());
+        table.replaceText(6, 11, "moon");
+        assertEquals("there\nmoon", table.getText().toString());
+        table.appendText("!");
+        assertEquals("moon!", table.getText(6, table.getLength()));
+        assertThrows(IndexOutOfBoundsException.class, () -> table.insertText(table.getLength() + 1, "x"));
+        assertThrows(IndexOutOfBoundsException.class, () -> table.deleteText(3, 2));
+    }
+
+    @Test
+    void typing() {
+        PieceTable table = new PieceTable("class A {}");
+        for (char c : "int a;".toCharArray())
+            table.insertText(table.getLength() - 1, String.valueOf(c));
+        assertEquals("class A {int a;}", table.getText().toString());
+        assertEquals(3, table.getPieceCount()); // typed text extends one piece
+    }
+
+    @Test
+    void snapshot() {
+        PieceTable table = new PieceTable("abc");
+        CharSequence before = table.getText();
+        table.insertText(1, "xyz");
+        table.deleteText(0, 2);
+        assertEquals("abc", before.toString());
+        assertEquals('b', before.charAt(1));
+        assertEquals("yzbc", table.getText().toString());
+    }
+
+    @Test
+    void lines() {
+        PieceTable table = new PieceTable("a\nbc\n\nd");
+        assertEquals(4, table.getLineCount());
+        assertEquals(0, table.getLineStart(0));
+        assertEquals(2, table.getLineStart(1));
+        assertEquals(5, table.getLineStart(2));
+        assertEquals(6, table.getLineStart(3));
+        assertEquals(1, table.getLineOf(2));
+        assertEquals(1, table.getLineOf(4));
+        assertEquals(3, table.getLineOf(7));
+        assertThrows(IndexOutOfBoundsException.class, () -> table.getLineStart(4));
+    }
+
+    @Test
+    void random() {
+        Random random = new Random(42);
+        StringBuilder expected = new StringBuilder("start\nof the\ntext\n");
+        PieceTable table = new PieceTable(expected);
+        for (int i = 0; i < 2000; i++) {
+            if (random.nextInt(3) > 0 || expected.length() == 0) {
+                int position = random.nextInt(expected.length() + 1);
+                String text = random.nextBoolean() ? "\n" : "ab\ncd".substring(random.nextInt(5));
+                expected.insert(position, text);
+                table.insertText(position, text);
+            } else {
+                int start = random.nextInt(expected.length());
+                int end = start + random.nextInt(Math.min(8, expected.length() - start) + 1);
+                expected.delete(start, end);
+                table.deleteText(start, end);
+            }
+        }
+        assertEquals(expected.toString(), table.getText().toString());
+        CharSequence text = table.getText();
+        for (int i = 0; i < expected.length(); i++)
+            assertEquals(expected.charAt(i), text.charAt(i));
+
+        int line = 0;
+        for (int i = 0; i <= expected.length(); i++) {
+            assertEquals(line, table.getLineOf(i));
+            if (i == 0 || expected.charAt(i - 1) == '\n')
+                assertEquals(i, table.getLineStart(line));
+            if (i < expected.length() && expected.charAt(i) == '\n')
+                line++;
+        }
+        assertEquals(line + 1, table.getLineCount());
+    }
+}
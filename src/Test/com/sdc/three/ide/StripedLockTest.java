@@ -0,0 +1,44 @@
+package com.sdc.three.ide;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripedLockTest {
+
+    @Test
+    void countsContention() throws InterruptedException {
+        final StripedLock locks = new StripedLock(16);
+        final int stripe = locks.stripe("a");
+        final long held = locks.lockWrite(stripe);
+        assertTrue(locks.isWriteLockedByCurrentThread("a"));
+        assertEquals(0, locks.getContendedCount());
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final Thread waiter = new Thread(() -> {
+            started.countDown();
+            locks.unlockRead(stripe, locks.lockRead(stripe));
+        });
+        waiter.start();
+        started.await();
+        Thread.sleep(50);
+        locks.unlockWrite(stripe, held);
+        waiter.join();
+        assertEquals(1, locks.getContendedCount());
+        assertTrue(locks.getWaitNanos() > 0);
+        assertTrue(locks.getAverageHoldNanos() > 0);
+    }
+
+    @Test
+    void lockAll() {
+        final StripedLock locks = new StripedLock(5);
+        locks.lockAll();
+        assertTrue(locks.isWriteLockedByCurrentThread("anything"));
+        final int stripe = locks.stripe("reentrant");
+        locks.unlockWrite(stripe, locks.lockWrite(stripe));
+        locks.unlockAll();
+        assertFalse(locks.isWriteLockedByCurrentThread("anything"));
+    }
+}
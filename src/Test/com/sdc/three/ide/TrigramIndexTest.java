@@ -0,0 +1,108 @@
+package com.sdc.three.ide;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrigramIndexTest {
+
+    @Test
+    void findsOnlyInCandidates(@TempDir Path dir) throws IOException, InvalidFileException {
+        final Path a = Files.writeString(dir.resolve("A.java"), "class A {\n    int counter;\n}\n");
+        final Path sub = Files.createDirectory(dir.resolve("sub"));
+        final Path b = Files.writeString(sub.resolve("B.java"), "class B {\n    String COUNTER_NAME;\n}\n");
+        Files.write(dir.resolve("image.bin"), new byte[]{'c', 'o', 'u', 'n', 't', 0, 'e', 'r'});
+        final TrigramIndex index = new TrigramIndex(new Workspace(dir.toFile()));
+        assertEquals(2, index.size());
+
+        assertEquals(List.of(a), index.candidates(Pattern.compile("int counter")));
+        final Queue<TrigramIndex.Match> found = new ConcurrentLinkedQueue<>();
+        assertEquals(2, index.search(TrigramIndex.literal("counter"), found::add, () -> false));
+        assertEquals(2, found.size());
+        final TrigramIndex.Match inB = found.stream().filter(m -> m.getPath().equals(b)).findFirst().orElseThrow();
+        assertEquals(2, inB.getLine());
+        assertEquals(11, inB.getColumn());
+        assertEquals("    String COUNTER_NAME;", inB.getLineText());
+
+        assertEquals(1, index.search(Pattern.compile("String\\s+[A-Z_]+;"), m -> {}, () -> false));
+        assertTrue(index.candidates(Pattern.compile("nowhere")).isEmpty());
+    }
+
+    @Test
+    void followsEvents(@TempDir Path dir) throws IOException, InvalidFileException, InterruptedException {
+        final Path a = Files.writeString(dir.resolve("A.java"), "old text");
+        final Workspace workspace = new Workspace(dir.toFile());
+        final TrigramIndex index = new TrigramIndex(workspace);
+
+        Files.writeString(a, "new text");
+        final Path moved = Files.createDirectories(dir.resolve("moved/deep"));
+        final Path c = Files.writeString(moved.resolve("C.java"), "new text too");
+        workspace.filesystemChanged(Map.of(a, FileEvent.MODIFIED, dir.resolve("moved"), FileEvent.ADDED));
+        for (int i = 0; i < 100 && index.isIndexing(); i++)
+            Thread.sleep(50);
+        assertFalse(index.isIndexing());
+        assertEquals(List.of(), index.candidates(TrigramIndex.literal("old text")));
+        assertEquals(2, index.candidates(TrigramIndex.literal("NEW TEXT")).size());
+
+        Files.delete(c);
+        Files.delete(moved);
+        Files.delete(moved.getParent());
+        workspace.filesystemChanged(dir.resolve("moved"), FileEvent.REMOVED);
+        assertEquals(List.of(a), index.candidates(TrigramIndex.literal("new text")));
+        index.detach();
+        workspace.filesystemChanged(Files.writeString(dir.resolve("D.java"), "text"), FileEvent.ADDED);
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void removesOnlyBelowDirectories(@TempDir Path dir) throws IOException, InvalidFileException {
+        final Path a = Files.createDirectory(dir.resolve("a"));
+        final Path ab = Files.createDirectory(dir.resolve("ab"));
+        Files.writeString(a.resolve("A.java"), "text");
+        Files.writeString(ab.resolve("B.java"), "text");
+        final Path binary = Files.write(ab.resolve("B.class"), new byte[]{'t', 'e', 'x', 't', 0});
+        final TrigramIndex index = new TrigramIndex(new Workspace(dir.toFile()));
+        assertEquals(2, index.size());
+
+        Files.delete(binary);
+        index.filesystemChanged(binary, FileEvent.REMOVED);
+        assertEquals(2, index.size());
+        index.filesystemChanged(a, FileEvent.REMOVED);
+        assertEquals(List.of(ab.resolve("B.java")), index.candidates(TrigramIndex.literal("text")));
+    }
+
+    @Test
+    void compactsOldVersions(@TempDir Path dir) throws IOException, InvalidFileException {
+        final Path a = Files.writeString(dir.resolve("A.java"), "version 0");
+        final Workspace workspace = new Workspace(dir.toFile());
+        final TrigramIndex index = new TrigramIndex(workspace);
+        for (int i = 1; i <= 3_000; i++) {
+            Files.writeString(a, "version " + i);
+            index.filesystemChanged(a, FileEvent.MODIFIED);
+        }
+        assertEquals(List.of(a), index.candidates(Pattern.compile("version 3000")));
+        assertEquals(List.of(), index.candidates(Pattern.compile("version 2999")));
+    }
+
+    @Test
+    void requiredLiterals() {
+        assertEquals(List.of("foo", "bar"), TrigramIndex.requiredLiterals(Pattern.compile("foo.*bar")));
+        assertEquals(List.of("public", "class"), TrigramIndex.requiredLiterals(Pattern.compile("public\\s+class\\b")));
+        assertEquals(List.of("cde"), TrigramIndex.requiredLiterals(Pattern.compile("abx?cde")));
+        assertEquals(List.of("a.b"), TrigramIndex.requiredLiterals(Pattern.compile("a\\.b")));
+        assertEquals(List.of("x(y"), TrigramIndex.requiredLiterals(Pattern.compile("\\Qx(y\\E")));
+        assertEquals(List.of(), TrigramIndex.requiredLiterals(Pattern.compile("foo|bar")));
+        assertEquals(List.of("end"), TrigramIndex.requiredLiterals(Pattern.compile("(foo|bar)[abc]{2}\\u0041end")));
+        assertEquals(List.of("x+y"), TrigramIndex.requiredLiterals(Pattern.compile("x+y", Pattern.LITERAL)));
+    }
+}
@@ -1,20 +1,121 @@
 package com.sdc.three.ide;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class WatchThreadPoolTest {
 
+    @TempDir
+    Path dir;
+
+    private final BlockingQueue<Map<Path, FileEvent>> bursts = new LinkedBlockingQueue<>();
+    private WatchThreadPool pool;
+
+    @BeforeEach
+    void initPool() throws IOException {
+        pool = new WatchThreadPool(new BatchFileChangeListener() {
+            @Override
+            public void filesystemChanged(Map<Path, FileEvent> changes) {
+                bursts.add(changes);
+            }
+
+            @Override
+            public void filesystemChanged(Path path, FileEvent event) {
+                fail("Batch listeners are given bursts");
+            }
+        });
+    }
+
     @Test
     void getListeners() {
+        assertEquals(1, pool.getListeners().size());
     }
 
     @Test
-    void register() {
+    void register() throws IOException, InterruptedException {
+        assertTrue(pool.register(dir));
+        Path file = dir.resolve("A");
+        Files.writeString(file, "A");
+        Files.writeString(file, "AB");
+        Map<Path, FileEvent> burst = bursts.poll(1, TimeUnit.SECONDS);
+        assertNotNull(burst);
+        assertEquals(Map.of(file, FileEvent.ADDED), burst);
+        assertEquals(0, pool.getQueueDepth());
+        assertTrue(pool.getDispatchedCount() >= 2);
+        assertTrue(pool.getAverageDispatchLatency() >= pool.getQuietMillis());
+    }
+
+    @Test
+    void unregister() throws IOException, InterruptedException {
+        assertTrue(pool.register(dir));
+        assertTrue(pool.unregister(dir));
+        assertFalse(pool.unregister(dir));
+        Files.writeString(dir.resolve("A"), "A");
+        assertNull(bursts.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void deliversConcurrently() throws IOException, InterruptedException {
+        // two directories handled by different workers
+        final Path first = Files.createDirectory(dir.resolve("first"));
+        Path other = null;
+        for (int i = 0; other == null; i++) {
+            final Path candidate = dir.resolve("other" + i);
+            if (Math.floorMod(candidate.hashCode(), WatchThreadPool.WORKERS)
+                    != Math.floorMod(first.hashCode(), WatchThreadPool.WORKERS))
+                other = Files.createDirectory(candidate);
+        }
+        final CountDownLatch delivering = new CountDownLatch(2);
+        final BlockingQueue<Boolean> overlapped = new LinkedBlockingQueue<>();
+        pool.getListeners().add(new BatchFileChangeListener() {
+            @Override
+            public void filesystemChanged(Map<Path, FileEvent> changes) {
+                delivering.countDown();
+                try {
+                    // each delivery waits for the other, which only returns if they are not serialized
+                    overlapped.add(delivering.await(2, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void filesystemChanged(Path path, FileEvent event) {
+                fail("Batch listeners are given bursts");
+            }
+        });
+        assertTrue(pool.register(first));
+        assertTrue(pool.register(other));
+        Files.createFile(first.resolve("A"));
+        Files.createFile(other.resolve("B"));
+        assertEquals(Boolean.TRUE, overlapped.poll(5, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, overlapped.poll(5, TimeUnit.SECONDS));
     }
 
     @Test
-    void unregister() {
+    void survivesFailingListener() throws IOException, InterruptedException {
+        pool.getListeners().add(0, (path, event) -> {
+            throw new IllegalStateException("listener failed");
+        });
+        final long errors = IdeMetrics.get().getErrorCount();
+        assertTrue(pool.register(dir));
+        for (int i = 0; i < WatchThreadPool.WORKERS; i++) {
+            // the later bursts reach the worker only if it is still running
+            final Path file = Files.createFile(dir.resolve("A" + i));
+            assertEquals(Map.of(file, FileEvent.ADDED), bursts.poll(2, TimeUnit.SECONDS));
+        }
+        assertTrue(IdeMetrics.get().getErrorCount() >= errors + WatchThreadPool.WORKERS);
     }
-}
\ No newline at end of file
+}
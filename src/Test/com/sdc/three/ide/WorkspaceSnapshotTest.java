@@ -0,0 +1,48 @@
+package com.sdc.three.ide;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkspaceSnapshotTest {
+
+    @Test
+    void roundTrip(@TempDir Path temp) throws IOException {
+        Path file = temp.resolve("cache").resolve("ws.snapshot");
+        WorkspaceSnapshot.write(file, temp, List.of(new WorkspaceSnapshot.Entry("", true, 0, 1),
+                new WorkspaceSnapshot.Entry("a.txt", false, 3, 2)));
+        List<WorkspaceSnapshot.Entry> entries = WorkspaceSnapshot.read(file, temp);
+        assertEquals(2, entries.size());
+        assertEquals("a.txt", entries.get(1).path);
+        assertEquals(3, entries.get(1).size);
+        try (Stream<Path> files = Files.list(file.getParent())) {
+            assertEquals(1, files.count()); // no temp file is left behind
+        }
+    }
+
+    @Test
+    void corruptLength(@TempDir Path temp) throws IOException {
+        Path file = temp.resolve("ws.snapshot");
+        WorkspaceSnapshot.write(file, temp, List.of(new WorkspaceSnapshot.Entry("", true, 0, 1)));
+        byte[] valid = Files.readAllBytes(file);
+        // a root path of 2 GB, as a truncated or corrupt file may claim
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.write(valid, 0, 8);
+            out.writeInt(Integer.MAX_VALUE);
+        }
+        assertThrows(IOException.class, () -> WorkspaceSnapshot.read(file, temp));
+
+        // an entry count larger than the file could hold
+        valid[valid.length - 21 - 4] = 0x7f; // the count is followed by the 21 bytes of the root entry
+        Files.write(file, valid);
+        assertThrows(IOException.class, () -> WorkspaceSnapshot.read(file, temp));
+    }
+}
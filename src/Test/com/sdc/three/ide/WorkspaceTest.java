@@ -3,16 +3,22 @@ package com.sdc.three.ide;
 import javafx.scene.control.TreeItem;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -51,6 +57,58 @@ class WorkspaceTest {
         assertTrue(containsAll(dir2Item, "E.java", "F"));
     }
 
+    @Test
+    void lazy() throws IOException, InvalidFileException {
+        Workspace lazy = new Workspace(path.toFile(), true);
+        Path dir2 = Path.of(path.toString(), "dir", "dir2").normalize();
+        assertEquals(lazy.getRoot(), lazy.getClosestItem(dir2));
+
+        assertTrue(containsAll(lazy.getRoot(), "A", "B.java", "dir", "tmp"));
+        PathTreeItem dirItem = (PathTreeItem) getName(lazy.getRoot(), "dir");
+        assertTrue(dirItem.isDirectory());
+        assertFalse(dirItem.isLeaf());
+        assertFalse(dirItem.isLoaded());
+        assertTrue(((PathTreeItem) getName(lazy.getRoot(), "A")).isLeaf());
+        assertEquals(dirItem, lazy.getClosestItem(dir2));
+
+        assertTrue(containsAll(dirItem, "C.java", "D.java", "dir2"));
+        assertTrue(dirItem.isLoaded());
+        assertEquals(getName(dirItem, "dir2"), lazy.getClosestItem(dir2));
+    }
+
+    @Test
+    void snapshot(@TempDir Path temp) throws IOException, InvalidFileException, InterruptedException {
+        Path root = Files.createDirectories(temp.resolve("ws"));
+        Path cache = temp.resolve("cache");
+        Files.createDirectories(root.resolve("a"));
+        Files.createFile(root.resolve("a").resolve("x.txt"));
+        Files.createFile(root.resolve("b.txt"));
+
+        Workspace first = new Workspace(root.toFile(), cache);
+        assertTrue(containsAll(first.getRoot(), "a", "b.txt"));
+        Path snapshot = WorkspaceSnapshot.fileFor(cache, root);
+        for (int i = 0; i < 100 && !Files.exists(snapshot); i++)
+            Thread.sleep(50);
+        assertTrue(Files.exists(snapshot));
+
+        Thread.sleep(50); // let the directory times move on
+        Files.delete(root.resolve("a").resolve("x.txt"));
+        Files.createFile(root.resolve("a").resolve("y.txt"));
+        Files.createDirectories(root.resolve("c"));
+        Files.createFile(root.resolve("c").resolve("z.txt"));
+
+        FileTime written = Files.getLastModifiedTime(snapshot);
+        Workspace reopened = new Workspace(root.toFile(), cache);
+        assertTrue(containsAll(reopened.getRoot(), "a", "b.txt", "c"));
+        TreeItem<Path> a = getName(reopened.getRoot(), "a");
+        assertEquals(1, a.getChildren().size());
+        assertTrue(containsAll(a, "y.txt"));
+        assertTrue(containsAll(getName(reopened.getRoot(), "c"), "z.txt"));
+        assertEquals(a, reopened.getClosestItem(root.resolve("a").resolve("x.txt")));
+        for (int i = 0; i < 100 && Files.getLastModifiedTime(snapshot).equals(written); i++)
+            Thread.sleep(50); // the snapshot is rewritten in the background
+    }
+
     @Test
     void getClosestItem() {
         TreeItem<Path> pathItem = wk.getClosestItem(path);
@@ -127,6 +185,125 @@ class WorkspaceTest {
         assertEquals(1, wk.getPathsToSave().size());
     }
 
+    @Test
+    void saveAll(@TempDir Path temp) throws IOException, InvalidFileException, InterruptedException {
+        Map<Path, String> files = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            Path file = Files.writeString(temp.resolve("F" + i + ".java"), "old " + i);
+            files.put(file, "new " + i);
+        }
+        Workspace saving = new Workspace(temp.toFile());
+        saving.saveAll(files);
+        for (Map.Entry<Path, String> file : files.entrySet())
+            assertEquals(file.getValue(), Files.readString(file.getKey()));
+
+        Thread.sleep(500); // let the events of the saves arrive
+        assertTrue(saving.getPathsToSave().isEmpty());
+        assertEquals(files.size(), saving.getRoot().getChildren().size());
+        try (Stream<Path> listing = Files.list(temp)) {
+            assertEquals(files.size(), listing.count()); // no temporary files are left
+        }
+
+        // a write that is not ours still counts
+        Path file = temp.resolve("F0.java");
+        Files.writeString(file, "changed elsewhere", StandardOpenOption.TRUNCATE_EXISTING);
+        for (int i = 0; i < 100 && saving.getPathsToSave().isEmpty(); i++)
+            Thread.sleep(50);
+        assertFalse(saving.getPathsToSave().isEmpty());
+        assertTrue(saving.getPathsToSave().stream().allMatch(file::equals));
+    }
+
+    @Test
+    void movedInSubtree(@TempDir Path temp) throws IOException, InvalidFileException, InterruptedException {
+        Path root = Files.createDirectories(temp.resolve("ws"));
+        Path outside = Files.createDirectories(temp.resolve("import").resolve("a").resolve("b"));
+        Files.createFile(outside.resolve("x.java"));
+        Files.createFile(outside.getParent().resolve("y.java"));
+        Workspace moved = new Workspace(root.toFile());
+
+        Path a = Files.move(outside.getParent(), root.resolve("a"));
+        Path x = a.resolve("b").resolve("x.java");
+        for (int i = 0; i < 100 && !moved.getClosestItem(x).getValue().equals(x); i++)
+            Thread.sleep(50);
+        assertEquals(x, moved.getItem(x).getValue());
+        assertEquals(2, moved.getChildren(a).size());
+
+        // the directories of the subtree are watched
+        Path z = Files.createFile(a.resolve("b").resolve("z.java"));
+        for (int i = 0; i < 100 && !moved.getClosestItem(z).getValue().equals(z); i++)
+            Thread.sleep(50);
+        assertEquals(z, moved.getItem(z).getValue());
+        assertEquals(2, moved.getChildren(a.resolve("b")).size());
+    }
+
+    @Test
+    void directoryReplaced(@TempDir Path temp) throws IOException, InvalidFileException, InterruptedException {
+        final Path d = Files.createDirectory(temp.resolve("d"));
+        final Path x = Files.createFile(d.resolve("x.txt"));
+        Workspace replaced = new Workspace(temp.toFile());
+
+        // within one quiet window of the watch
+        Files.delete(x);
+        Files.delete(d);
+        Files.createDirectory(d);
+        final Path y = Files.writeString(d.resolve("y.txt"), "y");
+        for (int i = 0; i < 100 && !replaced.getChildren(d).equals(List.of(y)); i++)
+            Thread.sleep(50);
+        assertEquals(List.of(y), replaced.getChildren(d));
+
+        // the new directory is watched
+        final Path z = Files.createFile(d.resolve("z.txt"));
+        for (int i = 0; i < 100 && replaced.getChildren(d).size() < 2; i++)
+            Thread.sleep(50);
+        assertEquals(Set.of(y, z), Set.copyOf(replaced.getChildren(d)));
+        assertFalse(replaced.getPathsToSave().contains(d));
+    }
+
+    @Test
+    void removedAfterParent(@TempDir Path temp) throws IOException, InvalidFileException {
+        final Path d = Files.createDirectory(temp.resolve("d"));
+        final Path x = Files.createFile(d.resolve("x.txt"));
+        Workspace removed = new Workspace(temp.toFile());
+        final long errors = IdeMetrics.get().getErrorCount();
+        Files.delete(x);
+        Files.delete(d);
+        // the parent's event may be delivered before the child's, by another worker
+        removed.filesystemChanged(d, FileEvent.REMOVED);
+        removed.filesystemChanged(x, FileEvent.REMOVED);
+        assertTrue(removed.getRoot().getChildren().isEmpty());
+        assertEquals(errors, IdeMetrics.get().getErrorCount());
+    }
+
+    @Test
+    void concurrentEvents(@TempDir Path temp) throws IOException, InvalidFileException, InterruptedException {
+        final int threads = 8;
+        final int perThread = 500;
+        Workspace concurrent = new Workspace(temp.toFile());
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final Path dir = temp.resolve("d" + t);
+            writers[t] = new Thread(() -> {
+                // the first event adds the directory too, the rest race the other threads for the root
+                for (int i = 0; i < perThread; i++)
+                    concurrent.filesystemChanged(dir.resolve("F" + i + ".java"), FileEvent.ADDED);
+                for (int i = 0; i < perThread; i += 2)
+                    concurrent.filesystemChanged(dir.resolve("F" + i + ".java"), FileEvent.REMOVED);
+            });
+        }
+        for (Thread writer : writers)
+            writer.start();
+        for (Thread writer : writers)
+            writer.join();
+
+        assertEquals(threads, concurrent.getRoot().getChildren().size());
+        for (int t = 0; t < threads; t++) {
+            final Path dir = temp.resolve("d" + t);
+            assertEquals(perThread / 2, concurrent.getChildren(dir).size());
+            assertEquals(dir.resolve("F1.java"), concurrent.getItem(dir.resolve("F1.java")).getValue());
+            assertThrows(NoSuchElementException.class, () -> concurrent.getItem(dir.resolve("F0.java")));
+        }
+    }
+
     private boolean containsAll(TreeItem<Path> root, String ... names) {
         final HashMap<String, Void> toFind = new HashMap<>(names.length * 2 + 1);
         for(String name : names) {
@@ -0,0 +1,111 @@
+package com.sdc.three.ide;
+
+import javafx.scene.control.TreeItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkspaceTreeBridgeTest {
+
+    private final Queue<Runnable> pulses = new ConcurrentLinkedQueue<>();
+
+    @Test
+    void mirrorsInBatches(@TempDir Path dir) throws IOException, InvalidFileException {
+        Files.createFile(dir.resolve("A.java"));
+        Files.createDirectory(dir.resolve("sub"));
+        final Workspace workspace = new Workspace(dir.toFile());
+        final WorkspaceTreeBridge bridge = new WorkspaceTreeBridge(workspace, pulses::add);
+        final TreeItem<Path> root = bridge.getRoot();
+        assertEquals(names(workspace.getRoot()), names(root));
+
+        final int added = 5 * WorkspaceTreeBridge.MAX_CHANGES_PER_PULSE + 1;
+        final Map<Path, FileEvent> checkout = new LinkedHashMap<>();
+        for (int i = 0; i < added; i++)
+            checkout.put(dir.resolve("F" + i + ".java"), FileEvent.ADDED);
+        workspace.filesystemChanged(checkout);
+        assertEquals(1, pulses.size(), "one batch is scheduled for a burst");
+        assertEquals(2, root.getChildren().size(), "nothing changes until the pulse");
+
+        int batches = 0;
+        int shown = root.getChildren().size();
+        for (Runnable pulse = pulses.poll(); pulse != null; pulse = pulses.poll()) {
+            pulse.run();
+            batches++;
+            assertTrue(root.getChildren().size() - shown <= WorkspaceTreeBridge.MAX_CHANGES_PER_PULSE);
+            shown = root.getChildren().size();
+        }
+        assertEquals(6, batches);
+        assertEquals(6, bridge.getPulseCount());
+        assertEquals(names(workspace.getRoot()), names(root));
+    }
+
+    @Test
+    void removesAndForgets(@TempDir Path dir) throws IOException, InvalidFileException {
+        final Path sub = Files.createDirectory(dir.resolve("sub"));
+        Files.createFile(sub.resolve("B.java"));
+        final Workspace workspace = new Workspace(dir.toFile());
+        final WorkspaceTreeBridge bridge = new WorkspaceTreeBridge(workspace, pulses::add);
+        final TreeItem<Path> subItem = bridge.getRoot().getChildren().get(0);
+        assertEquals(Set.of("B.java"), names(subItem));
+
+        workspace.filesystemChanged(sub.resolve("C.java"), FileEvent.ADDED);
+        workspace.filesystemChanged(dir.resolve("D.java"), FileEvent.ADDED);
+        assertEquals(1, pulses.size(), "bursts before the pulse share it");
+        pulses.poll().run();
+        assertEquals(Set.of("B.java", "C.java"), names(subItem));
+        assertEquals(Set.of("sub", "D.java"), names(bridge.getRoot()));
+
+        workspace.filesystemChanged(sub, FileEvent.REMOVED);
+        pulses.poll().run();
+        assertEquals(Set.of("D.java"), names(bridge.getRoot()));
+
+        bridge.detach();
+        workspace.filesystemChanged(dir.resolve("E.java"), FileEvent.ADDED);
+        assertTrue(pulses.isEmpty());
+    }
+
+    @Test
+    void fallbackSerializesBatches(@TempDir Path dir) throws IOException, InvalidFileException, InterruptedException {
+        final Workspace workspace = new Workspace(dir.toFile());
+        // without the FX toolkit, batches run on one background thread
+        final WorkspaceTreeBridge bridge = new WorkspaceTreeBridge(workspace);
+        final TreeItem<Path> root = bridge.getRoot();
+        assertTrue(root.getChildren().isEmpty());
+
+        final int threads = 4;
+        final int perThread = 200;
+        final Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++)
+                    workspace.filesystemChanged(dir.resolve("T" + thread + "F" + i + ".java"), FileEvent.ADDED);
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers)
+            writer.join();
+        for (int i = 0; i < 100 && root.getChildren().size() < threads * perThread; i++)
+            Thread.sleep(50);
+        assertEquals(names(workspace.getRoot()), names(root));
+        assertEquals(threads * perThread, root.getChildren().size());
+    }
+
+    private static Set<String> names(TreeItem<Path> item) {
+        final Set<String> names = new HashSet<>();
+        for (TreeItem<Path> child : item.getChildren())
+            names.add(child.getValue().getFileName().toString());
+        return names;
+    }
+}
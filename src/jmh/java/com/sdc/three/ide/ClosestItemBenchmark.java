@@ -0,0 +1,60 @@
+package com.sdc.three.ide;
+
+import javafx.scene.control.TreeItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@link Workspace#getClosestItem(Path)} for a file at the bottom of a chain of directories, and for a path
+ * below it that is not in the tree, which has to be looked up again at each parent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClosestItemBenchmark {
+
+    @Param({"2", "8", "32"})
+    public int depth;
+
+    @Param({"8", "256"})
+    public int fanout;
+
+    private Workspace workspace;
+    private Path present;
+    private Path missing;
+
+    @Setup
+    public void openWorkspace() throws IOException, InvalidFileException {
+        final Path root = SyntheticTree.chain(depth, fanout);
+        workspace = new Workspace(root.toFile());
+        final Path deepest = SyntheticTree.deepest(root, depth);
+        present = deepest.resolve("File0.java");
+        missing = deepest.resolve("a").resolve("b").resolve("Missing.java");
+    }
+
+    @Benchmark
+    public TreeItem<Path> present() {
+        return workspace.getClosestItem(present);
+    }
+
+    @Benchmark
+    public TreeItem<Path> missing() {
+        return workspace.getClosestItem(missing);
+    }
+}
@@ -0,0 +1,61 @@
+package com.sdc.three.ide;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times a full build of a generated project by the {@link CompileScheduler} that {@link CompilerThread} runs. The
+ * CompilerThread itself reports progress through a JavaFX Task, which needs the FX toolkit, so the scheduler is timed
+ * directly. Every class of the project uses the one before it, and every tenth starts a new package.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompileBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int files;
+
+    private final List<File> sources = new ArrayList<>();
+
+    @Setup
+    public void writeProject() throws IOException {
+        final Path root = Files.createTempDirectory("sdc-bench-compile");
+        for (int i = 0; i < files; i++) {
+            final String pkg = "p" + i / 10;
+            final Path dir = Files.createDirectories(root.resolve(pkg));
+            final String uses = i == 0 ? "" : "p" + (i - 1) / 10 + ".C" + (i - 1) + " previous; ";
+            final String source = "package " + pkg + ";\npublic class C" + i + " { " + uses
+                    + "public int value(int x) { return x * " + i + "; } }\n";
+            sources.add(Files.writeString(dir.resolve("C" + i + ".java"), source).toFile());
+        }
+    }
+
+    @Benchmark
+    public HashMap<File, CompileError> build() throws IOException, InterruptedException {
+        final CompileScheduler scheduler = new CompileScheduler(ToolProvider.getSystemJavaCompiler(), new DependencyGraph());
+        return scheduler.compile(sources, (compiled, total) -> { }, error -> { });
+    }
+}
@@ -0,0 +1,67 @@
+package com.sdc.three.ide;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@link FileFinder#find(String, int)} over paths shaped like those of a large source tree: a query on its own,
+ * and each keystroke of typing it, which only searches again the matches of the keystroke before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileFinderBenchmark {
+
+    @Param({"50000", "500000"})
+    public int paths;
+
+    @Param({"w", "wsv", "WorkspaceViewer"})
+    public String query;
+
+    private static final String[] WORDS = {"Workspace", "Viewer", "Watch", "Thread", "Pool", "Compiler", "Editor",
+            "Index", "Snapshot", "Tree", "Cell", "Loader"};
+
+    private FileFinder finder;
+
+    @Setup
+    public void fillFinder() {
+        final List<String> all = new ArrayList<>(paths);
+        for (int i = 0; i < paths; i++)
+            all.add("module" + (i % 97) + "/src/main/java/com/example/pkg" + (i % 1_013) + "/"
+                    + WORDS[i % WORDS.length] + WORDS[i / WORDS.length % WORDS.length] + i + ".java");
+        all.set(paths / 2, "ide/src/main/java/com/sdc/three/ide/WorkspaceViewer.java");
+        finder = new FileFinder(Path.of("/root"), all);
+    }
+
+    @Benchmark
+    public List<String> find() {
+        finder.find("", 20);
+        return finder.find(query, 20);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(3)
+    public List<String> typing() {
+        finder.find(query.substring(0, 1), 20);
+        finder.find(query.substring(0, Math.min(2, query.length())), 20);
+        return finder.find(query, 20);
+    }
+}
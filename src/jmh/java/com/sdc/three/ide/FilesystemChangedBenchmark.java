@@ -0,0 +1,88 @@
+package com.sdc.three.ide;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Measures how many events per second {@link Workspace#filesystemChanged(Map)} applies. Each invocation adds a burst
+ * of {@value #BURST} files to the tree, then removes them again. Running with more threads (-t) shows how well bursts
+ * in different directories are applied at the same time, each thread having its own directories.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilesystemChangedBenchmark {
+
+    static final int BURST = 1_000;
+
+    /** the number of directories the files of a burst are spread over */
+    @Param({"1", "64"})
+    public int directories;
+
+    private Path root;
+    private Workspace workspace;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @Setup
+    public void openWorkspace() throws IOException, InvalidFileException {
+        root = Files.createTempDirectory("sdc-bench-events");
+        workspace = new Workspace(root.toFile());
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Bursts {
+        final Map<Path, FileEvent> added = new LinkedHashMap<>();
+        final Map<Path, FileEvent> removed = new LinkedHashMap<>();
+
+        @Setup
+        public void createBursts(FilesystemChangedBenchmark benchmark) throws IOException {
+            final Path thread = Files.createDirectory(benchmark.root.resolve("t" + benchmark.threads.getAndIncrement()));
+            for (int d = 0; d < benchmark.directories; d++)
+                Files.createDirectory(thread.resolve("d" + d));
+            benchmark.workspace.filesystemChanged(thread, FileEvent.ADDED);
+            for (int i = 0; i < BURST; i++) {
+                final Path file = thread.resolve("d" + i % benchmark.directories).resolve("File" + i + ".java");
+                added.put(file, FileEvent.ADDED);
+                removed.put(file, FileEvent.REMOVED);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * BURST)
+    public void addAndRemove(Bursts bursts) {
+        workspace.filesystemChanged(bursts.added);
+        workspace.filesystemChanged(bursts.removed);
+    }
+}
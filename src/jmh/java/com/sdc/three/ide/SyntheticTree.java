@@ -0,0 +1,90 @@
+package com.sdc.three.ide;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Builds directory trees on disk for the benchmarks. The same arguments always give the same tree, and a tree is kept
+ * in the temporary directory once built, so that large trees are only written once across runs.
+ */
+class SyntheticTree {
+
+    private static final String COMPLETE = ".complete";
+
+    private SyntheticTree() {
+    }
+
+    /**
+     * Returns a tree of files where every directory holds fanout files and fanout subdirectories, filled breadth first
+     *
+     * @param files the number of files in the tree
+     * @param fanout the number of files and of subdirectories in each directory
+     * @return the root of the tree
+     */
+    static Path of(int files, int fanout) {
+        final Path root = Path.of(System.getProperty("java.io.tmpdir"), "sdc-bench", "tree-" + files + "-" + fanout);
+        if (Files.exists(root.resolve(COMPLETE)))
+            return root;
+        try {
+            final Deque<Path> dirs = new ArrayDeque<>();
+            dirs.add(Files.createDirectories(root));
+            int written = 0;
+            while (written < files) {
+                final Path dir = dirs.poll();
+                for (int i = 0; i < fanout && written < files; i++, written++)
+                    touch(dir.resolve("File" + i + ".java"));
+                for (int i = 0; i < fanout && written + fanout * dirs.size() < files; i++)
+                    dirs.add(Files.createDirectories(dir.resolve("dir" + i)));
+            }
+            touch(root.resolve(COMPLETE));
+            return root;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns a chain of directories, each holding fanout files and the next directory
+     *
+     * @param depth the number of directories below the root
+     * @param fanout the number of files in each directory
+     * @return the root of the chain
+     */
+    static Path chain(int depth, int fanout) {
+        final Path root = Path.of(System.getProperty("java.io.tmpdir"), "sdc-bench", "chain-" + depth + "-" + fanout);
+        if (Files.exists(root.resolve(COMPLETE)))
+            return root;
+        try {
+            Path dir = Files.createDirectories(root);
+            for (int level = 0; level <= depth; level++) {
+                for (int i = 0; i < fanout; i++)
+                    touch(dir.resolve("File" + i + ".java"));
+                if (level < depth)
+                    dir = Files.createDirectories(dir.resolve("dir" + level));
+            }
+            touch(root.resolve(COMPLETE));
+            return root;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the deepest directory of a chain
+     */
+    static Path deepest(Path chain, int depth) {
+        Path dir = chain;
+        for (int level = 0; level < depth; level++)
+            dir = dir.resolve("dir" + level);
+        return dir;
+    }
+
+    private static void touch(Path file) throws IOException {
+        if (!Files.exists(file))
+            Files.createFile(file);
+    }
+}
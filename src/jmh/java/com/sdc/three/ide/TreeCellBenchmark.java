@@ -0,0 +1,57 @@
+package com.sdc.three.ide;
+
+import javafx.application.Platform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times showing an item in a workspace cell, as happens for every row scrolled into view. The cell is not in a scene,
+ * so only the work of updateItem is measured, not the layout. Starting the FX toolkit needs a display.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeCellBenchmark {
+
+    private static final String[] NAMES = {"Main.java", "photo.jpeg", "archive.tar.gz", ".gitignore", "README", "src"};
+
+    private WorkspaceViewer.TreeCellPathSkin cell;
+    private PathTreeItem[] items;
+    private int next;
+
+    @Setup
+    public void createCell() {
+        try {
+            Platform.startup(() -> { });
+        } catch (IllegalStateException e) {
+            // already started
+        }
+        cell = new WorkspaceViewer.TreeCellPathSkin();
+        cell.updateTreeView(new WorkspaceViewer(null));
+        items = new PathTreeItem[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++)
+            items[i] = new PathTreeItem(Path.of("workspace", NAMES[i]), NAMES[i].equals("src"));
+    }
+
+    @Benchmark
+    public Object updateItem() {
+        final PathTreeItem item = items[next++ % items.length];
+        cell.updateTreeItem(item);
+        cell.updateItem(item.getValue(), false);
+        return cell.getText();
+    }
+}
@@ -0,0 +1,54 @@
+package com.sdc.three.ide;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times opening a workspace, which scans the whole tree and registers every directory with the watch.
+ *
+ * Each open starts watch threads that are never stopped, so the iterations are few and each trial is forked.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WorkspaceBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int files;
+
+    @Param({"16"})
+    public int fanout;
+
+    private Path root;
+
+    @Setup
+    public void createTree() {
+        root = SyntheticTree.of(files, fanout);
+    }
+
+    @Benchmark
+    public Workspace parseWorkspace() throws IOException, InvalidFileException {
+        return new Workspace(root.toFile());
+    }
+
+    @Benchmark
+    public Workspace openLazy() throws IOException, InvalidFileException {
+        return new Workspace(root.toFile(), true);
+    }
+}
@@ -0,0 +1,17 @@
+package com.sdc.three.ide;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * A FileChangeListener that receives a burst of coalesced events at once, rather than one call per event.
+ *
+ * @see WatchThreadPool
+ */
+public interface BatchFileChangeListener extends FileChangeListener {
+    /**
+     * Called once per burst of events, with at most one event per path.
+     * @param changes the coalesced events, in the order their paths first changed
+     */
+    void filesystemChanged(Map<Path, FileEvent> changes);
+}
@@ -0,0 +1,533 @@
+package com.sdc.three.ide;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * A local cache of build outputs, so that compiling sources that were compiled before, as after switching branches
+ * back, restores the class files and diagnostics of that build instead of running the compiler again.
+ *
+ * Each source of a build is cached on its own. A source is keyed by a SHA-256 hash of everything that decides its
+ * outputs: the runtime version, the javac options, its path and content, and the path and content of every source it
+ * resolves to through the sourcepath, transitively. The inputs of a source are found from the names the
+ * {@link DependencyGraph} scanned in it: a simple name is looked for in the directories of its own package and of its
+ * imports on demand, and a dotted name in the directories of its packages, under every source root of the build. Only
+ * those directories are listed, so an edit elsewhere under the roots keeps the key, and a build never walks a root.
+ *
+ * Each entry is a small file listing the class files of one source, by their path relative to the output directory
+ * and the hash of their content, along with the diagnostics of the source. The class files themselves are kept once
+ * per distinct content, so builds of nearly the same sources share most of them.
+ *
+ * The cache remembers which class files each source has in an output directory, from the last time it was restored or
+ * added. A build clears those of its sources with {@link #clear(Path, Collection)} before restoring any, so the class
+ * files of types that were since deleted or renamed do not outlive them.
+ *
+ * The cache is kept under a size cap. Each use of an entry touches it, and once the cache grows past the cap the least
+ * recently used entries are evicted, along with the class files no other entry has. The order of use is kept through
+ * the modified time of the entries, so it carries over to the next run.
+ *
+ * @see CompilerThread#CompilerThread(DependencyGraph, Path, BuildCache)
+ */
+public class BuildCache {
+
+    private static final int MAGIC = 0x53444342; // SDCB
+    private static final int VERSION = 2;
+    private static final String ENTRY_SUFFIX = ".build";
+
+    private final Path entriesDir;
+    private final Path blobsDir;
+    private final long maxBytes;
+    // the entries by key, least recently used first, with the size of each entry file
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // the number of entries referencing each class file, by its hash
+    private final HashMap<String, Integer> references = new HashMap<>();
+    // the class files each source was last restored or added with, by output directory
+    private final HashMap<Path, HashMap<File, Set<String>>> present = new HashMap<>();
+    private long size;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a BuildCache, reading the entries already in the directory
+     *
+     * @param dir the directory of the cache, created if needed
+     * @param maxBytes the size the cache is kept under, though the latest entry is always kept
+     * @throws IOException if the directory could not be created or read
+     */
+    public BuildCache(Path dir, long maxBytes) throws IOException {
+        if (maxBytes <= 0) throw new IllegalArgumentException("Cache size must be positive");
+        this.entriesDir = Files.createDirectories(dir.resolve("entries"));
+        this.blobsDir = Files.createDirectories(dir.resolve("classes"));
+        this.maxBytes = maxBytes;
+        final List<Path> found = new ArrayList<>();
+        try (Stream<Path> list = Files.list(entriesDir)) {
+            list.filter(path -> path.getFileName().toString().endsWith(ENTRY_SUFFIX)).forEach(found::add);
+        }
+        final Map<Path, FileTime> used = new HashMap<>();
+        for (Path entry : found)
+            used.put(entry, Files.getLastModifiedTime(entry));
+        found.sort(Comparator.comparing(used::get));
+        for (Path entry : found) {
+            try {
+                final Entry read = read(entry);
+                final String key = entry.getFileName().toString();
+                entries.put(key.substring(0, key.length() - ENTRY_SUFFIX.length()), Files.size(entry));
+                size += Files.size(entry);
+                for (String blob : read.outputs.values())
+                    reference(blob);
+            } catch (IOException e) {
+                IdeMetrics.error("Dropping unreadable build cache entry " + entry + ": " + e.getMessage());
+                Files.deleteIfExists(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the key of every source of a build
+     *
+     * @param files the files of the build
+     * @param options the javac options of the build, other than the output directory
+     * @param graph the graph to read the packages and names of the sources from, refreshed for any changed sources
+     * @return the key of each file, as hex
+     * @throws IOException if a source could not be read
+     */
+    public static Map<File, String> keys(List<File> files, List<String> options, DependencyGraph graph) throws IOException {
+        final LinkedHashSet<Path> roots = new LinkedHashSet<>();
+        for (File file : files) {
+            graph.refresh(file);
+            roots.add(graph.getSourceRoot(file).toAbsolutePath().normalize());
+        }
+        final Inputs inputs = new Inputs(roots, graph);
+        final Map<File, String> keys = new LinkedHashMap<>(files.size() * 2 + 1);
+        for (File file : files) {
+            final MessageDigest digest = sha256();
+            update(digest, "sdc build v" + VERSION);
+            update(digest, Runtime.version().toString());
+            for (String option : options)
+                update(digest, option);
+            update(digest, "source " + DependencyGraph.key(file));
+            for (File input : inputs.closure(file)) {
+                update(digest, "input " + input);
+                final byte[] hash = graph.getHash(input);
+                if (hash != null)
+                    digest.update(hash);
+            }
+            keys.put(file, hex(digest.digest()));
+        }
+        return keys;
+    }
+
+    /**
+     * Deletes the class files the sources were last restored or added with, so that restoring or compiling them
+     * again leaves no class file of a type they no longer declare
+     *
+     * @param outputDirectory the directory of the class files
+     * @param sources the sources of a build, before any is restored or compiled
+     * @throws IOException if a class file could not be deleted
+     */
+    public synchronized void clear(Path outputDirectory, Collection<File> sources) throws IOException {
+        final Path root = outputDirectory.toAbsolutePath().normalize();
+        final HashMap<File, Set<String>> outputs = present.get(root);
+        if (outputs == null)
+            return;
+        for (File source : sources) {
+            final Set<String> stale = outputs.remove(DependencyGraph.key(source));
+            if (stale == null)
+                continue;
+            for (String output : stale)
+                Files.deleteIfExists(root.resolve(output));
+        }
+    }
+
+    /**
+     * Restores the outputs of a source, if it is in the cache
+     *
+     * @param key the key of the source
+     * @param source the source, whose class files are recorded for {@link #clear(Path, Collection)}
+     * @param outputDirectory the directory to write the class files to
+     * @param listener told about every diagnostic of the source, in the order javac reported them
+     * @return the errors of the source, empty if it compiled, or null if it is not in the cache
+     * @throws IOException if the class files could not be written
+     */
+    public synchronized HashMap<File, CompileError> restore(String key, File source, Path outputDirectory,
+                                                            LineErrorListener listener) throws IOException {
+        final Path file = entryFile(key);
+        if (!entries.containsKey(key)) {
+            misses++;
+            return null;
+        }
+        final Entry entry;
+        try {
+            entry = read(file);
+            for (String blob : entry.outputs.values()) {
+                if (!Files.exists(blobFile(blob)))
+                    throw new NoSuchFileException(blobFile(blob).toString());
+            }
+        } catch (IOException e) {
+            IdeMetrics.error("Dropping unusable build cache entry " + file + ": " + e.getMessage());
+            evict(key);
+            misses++;
+            return null;
+        }
+        entries.get(key); // most recently used
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        for (Map.Entry<String, String> output : entry.outputs.entrySet()) {
+            final Path target = outputDirectory.resolve(output.getKey()).normalize();
+            if (!target.startsWith(outputDirectory.normalize()))
+                throw new IOException("Build cache entry " + file + " writes outside of " + outputDirectory);
+            Files.createDirectories(target.getParent());
+            Files.copy(blobFile(output.getValue()), target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        record(outputDirectory, source, entry.outputs.keySet());
+        for (LineError diagnostic : entry.diagnostics)
+            listener.errorFound(diagnostic);
+        hits++;
+        return entry.errors;
+    }
+
+    /**
+     * Adds the outputs of a source, then evicts the least recently used entries while the cache is over its size
+     *
+     * @param key the key of the source
+     * @param source the source, whose class files are recorded for {@link #clear(Path, Collection)}
+     * @param outputDirectory the directory the class files were written to
+     * @param outputs the class files compiled from the source, in the output directory
+     * @param diagnostics every diagnostic of the source, in the order javac reported them
+     * @param errors the errors of the source, keyed by it, empty if it compiled
+     * @throws IOException if the entry could not be written
+     */
+    public synchronized void put(String key, File source, Path outputDirectory, Collection<Path> outputs,
+                                 List<LineError> diagnostics, Map<File, CompileError> errors) throws IOException {
+        final Path root = outputDirectory.toAbsolutePath().normalize();
+        final TreeMap<String, String> stored = new TreeMap<>();
+        for (Path output : outputs) {
+            final Path path = output.toAbsolutePath().normalize();
+            if (!path.startsWith(root) || !Files.isRegularFile(path))
+                continue;
+            final byte[] content = Files.readAllBytes(path);
+            final String blob = hex(sha256().digest(content));
+            final Path blobFile = blobFile(blob);
+            if (!Files.exists(blobFile)) {
+                Files.createDirectories(blobFile.getParent());
+                final Path tmp = Files.createTempFile(blobFile.getParent(), blob, ".tmp");
+                Files.write(tmp, content);
+                Files.move(tmp, blobFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            stored.put(WorkspaceSnapshot.relative(root, path), blob);
+        }
+        record(outputDirectory, source, stored.keySet());
+        // referenced before an older entry of the key is released, so the class files they share are kept
+        for (String blob : stored.values())
+            reference(blob);
+        if (entries.containsKey(key))
+            evict(key);
+        final Path file = entryFile(key);
+        write(file, new Entry(stored, diagnostics, errors));
+        entries.put(key, Files.size(file));
+        size += Files.size(file);
+        final Iterator<String> eldest = entries.keySet().iterator();
+        while (size > maxBytes && entries.size() > 1) {
+            final String evicted = eldest.next();
+            eldest.remove();
+            release(evicted);
+        }
+    }
+
+    /**
+     * @return the size of the cache on disk in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of sources in the cache
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of sources restored from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of sources looked up but not found in the cache
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void record(Path outputDirectory, File source, Set<String> outputs) {
+        present.computeIfAbsent(outputDirectory.toAbsolutePath().normalize(), dir -> new HashMap<>())
+                .computeIfAbsent(DependencyGraph.key(source), file -> new HashSet<>()).addAll(outputs);
+    }
+
+    private void evict(String key) throws IOException {
+        entries.remove(key);
+        release(key);
+    }
+
+    /**
+     * Deletes the file of an entry no longer in the map, and the class files no other entry references
+     */
+    private void release(String key) throws IOException {
+        final Path file = entryFile(key);
+        if (!Files.exists(file))
+            return;
+        Entry entry = null;
+        try {
+            entry = read(file);
+        } catch (IOException e) {
+            // its class files stay until the cache is cleared
+        }
+        size -= Files.size(file);
+        Files.delete(file);
+        if (entry == null)
+            return;
+        for (String blob : entry.outputs.values()) {
+            final int left = references.merge(blob, -1, Integer::sum);
+            if (left > 0)
+                continue;
+            references.remove(blob);
+            final Path blobFile = blobFile(blob);
+            if (Files.exists(blobFile)) {
+                size -= Files.size(blobFile);
+                Files.delete(blobFile);
+            }
+        }
+    }
+
+    /**
+     * Counts a reference to a class file, whose size counts towards the cache from its first reference
+     */
+    private void reference(String blob) throws IOException {
+        if (references.merge(blob, 1, Integer::sum) == 1 && Files.exists(blobFile(blob)))
+            size += Files.size(blobFile(blob));
+    }
+
+    private Path entryFile(String key) {
+        return entriesDir.resolve(key + ENTRY_SUFFIX);
+    }
+
+    private Path blobFile(String blob) {
+        return blobsDir.resolve(blob.substring(0, 2)).resolve(blob + ".class");
+    }
+
+    /**
+     * Resolves the sources a source may read through the sourcepath, listing each package directory once per build
+     */
+    private static class Inputs {
+        private final Collection<Path> roots;
+        private final DependencyGraph graph;
+        // the names of the java sources in each directory listed
+        private final HashMap<Path, Set<String>> listings = new HashMap<>();
+        private final HashMap<File, Set<File>> direct = new HashMap<>();
+
+        Inputs(Collection<Path> roots, DependencyGraph graph) {
+            this.roots = roots;
+            this.graph = graph;
+        }
+
+        /**
+         * @return the source and every source it resolves to, transitively, in order
+         */
+        SortedSet<File> closure(File file) throws IOException {
+            final TreeSet<File> closure = new TreeSet<>();
+            final ArrayDeque<File> pending = new ArrayDeque<>();
+            pending.add(DependencyGraph.key(file));
+            while (!pending.isEmpty()) {
+                final File next = pending.poll();
+                if (closure.add(next))
+                    pending.addAll(direct(next));
+            }
+            return closure;
+        }
+
+        private Set<File> direct(File file) throws IOException {
+            Set<File> found = direct.get(file);
+            if (found != null)
+                return found;
+            found = new HashSet<>();
+            direct.put(file, found);
+            try {
+                graph.refresh(file);
+            } catch (NoSuchFileException e) {
+                return found; // removed since it was listed, its key changes with its hash
+            }
+            final String pkg = graph.getPackage(file);
+            final Set<Path> dirs = new LinkedHashSet<>();
+            for (Path root : roots)
+                dirs.add(pkg.isEmpty() ? root : root.resolve(Path.of("", pkg.split("\\."))));
+            for (String name : graph.getQualifiedNames(file)) {
+                final String[] parts = name.split("\\.");
+                final boolean onDemand = "*".equals(parts[parts.length - 1]);
+                for (Path root : roots) {
+                    // every prefix may name a source: a.b.C.m is a.java, a/b.java, a/b/C.java or a/b/C/m.java
+                    Path dir = root;
+                    for (int i = 0; i < (onDemand ? parts.length - 1 : parts.length); i++) {
+                        if (list(dir).contains(parts[i]))
+                            found.add(dir.resolve(parts[i] + ".java").toFile());
+                        dir = dir.resolve(parts[i]);
+                    }
+                    if (onDemand)
+                        dirs.add(dir);
+                }
+            }
+            for (String name : graph.getReferences(file)) {
+                for (Path dir : dirs) {
+                    if (list(dir).contains(name))
+                        found.add(dir.resolve(name + ".java").toFile());
+                }
+            }
+            return found;
+        }
+
+        private Set<String> list(Path dir) throws IOException {
+            Set<String> names = listings.get(dir);
+            if (names != null)
+                return names;
+            names = new HashSet<>();
+            if (Files.isDirectory(dir)) {
+                try (DirectoryStream<Path> children = Files.newDirectoryStream(dir, "*.java")) {
+                    for (Path child : children) {
+                        final String name = child.getFileName().toString();
+                        if (Files.isRegularFile(child))
+                            names.add(name.substring(0, name.length() - ".java".length()));
+                    }
+                }
+            }
+            listings.put(dir, names);
+            return names;
+        }
+    }
+
+    /**
+     * The recorded outputs of one source
+     */
+    private static class Entry {
+        /** the hash of each class file, by its path relative to the output directory */
+        final SortedMap<String, String> outputs;
+        final List<LineError> diagnostics;
+        final HashMap<File, CompileError> errors;
+
+        Entry(SortedMap<String, String> outputs, List<LineError> diagnostics, Map<File, CompileError> errors) {
+            this.outputs = outputs;
+            this.diagnostics = new ArrayList<>(diagnostics);
+            this.errors = new HashMap<>(errors);
+        }
+    }
+
+    private static Entry read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a build cache entry: " + file);
+            final TreeMap<String, String> outputs = new TreeMap<>();
+            for (int i = in.readInt(); i > 0; i--)
+                outputs.put(in.readUTF(), in.readUTF());
+            final List<LineError> diagnostics = readLines(in);
+            final HashMap<File, CompileError> errors = new HashMap<>();
+            for (int i = in.readInt(); i > 0; i--)
+                errors.put(new File(in.readUTF()), new CompileError(readLines(in)));
+            return new Entry(outputs, diagnostics, errors);
+        } catch (EOFException | UTFDataFormatException | RuntimeException e) {
+            // a truncated entry, or a corrupt length or severity
+            throw new IOException("Corrupt build cache entry: " + file, e);
+        }
+    }
+
+    private static void write(Path file, Entry entry) throws IOException {
+        final Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entry.outputs.size());
+            for (Map.Entry<String, String> output : entry.outputs.entrySet()) {
+                out.writeUTF(output.getKey());
+                out.writeUTF(output.getValue());
+            }
+            writeLines(out, entry.diagnostics);
+            out.writeInt(entry.errors.size());
+            for (Map.Entry<File, CompileError> error : entry.errors.entrySet()) {
+                out.writeUTF(error.getKey().getPath());
+                writeLines(out, error.getValue().getLines());
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static List<LineError> readLines(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        final List<LineError> lines = new ArrayList<>(Math.min(count, 1_024));
+        for (int i = 0; i < count; i++) {
+            final String file = in.readUTF();
+            final int line = in.readInt();
+            final int column = in.readInt();
+            final LineError.Severity severity = LineError.Severity.values()[in.readByte()];
+            lines.add(new LineError(file.isEmpty() ? null : new File(file), line, column, severity, readLong(in)));
+        }
+        return lines;
+    }
+
+    private static void writeLines(DataOutputStream out, Collection<LineError> lines) throws IOException {
+        out.writeInt(lines.size());
+        for (LineError line : lines) {
+            out.writeUTF(line.getFile() == null ? "" : line.getFile().getPath());
+            out.writeInt(line.getLine());
+            out.writeInt(line.getColumn());
+            out.writeByte(line.getSeverity().ordinal());
+            writeLong(out, line.getMessage());
+        }
+    }
+
+    /**
+     * Reads a string that may be longer than {@link DataOutputStream#writeUTF(String)} allows, as messages can be
+     */
+    private static String readLong(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeLong(DataOutputStream out, String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void update(MessageDigest digest, String string) {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by every Java platform", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return builder.toString();
+    }
+}
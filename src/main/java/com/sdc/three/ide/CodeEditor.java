@@ -0,0 +1,234 @@
+package com.sdc.three.ide;
+
+import javafx.application.Platform;
+import javafx.scene.layout.StackPane;
+import org.fxmisc.flowless.VirtualizedScrollPane;
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.LineNumberFactory;
+import org.fxmisc.richtext.model.PlainTextChange;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A Java source editor built on a RichTextFX {@link CodeArea}. The area is shown in a {@link VirtualizedScrollPane},
+ * so only the visible lines have nodes however long the file is.
+ *
+ * Every change to the area is mirrored into a {@link PieceTable}, which answers the {@link TextEditor} queries and gives
+ * the highlighter snapshots of the text that later edits do not affect.
+ *
+ * Highlighting is incremental. The editor keeps the {@link JavaLexer} state at the start of every line; an edit marks
+ * only the lines it touched as dirty, and those are lexed on a background thread from a snapshot, at most
+ * {@value #MAX_JOB_LINES} lines at a time. The resulting style spans are applied to the area in one batch, back on the
+ * FX thread, if no edit was made in the meantime; otherwise the lines are still dirty and are lexed again. When the
+ * state at the end of a lexed range differs from the state the next line was lexed with, the next line is marked dirty
+ * too, so an opened block comment is carried down a range at a time.
+ *
+ * A CodeEditor must only be used from the FX thread.
+ */
+public class CodeEditor extends StackPane implements TextEditor {
+
+    private static final int MAX_JOB_LINES = 1_000;
+    private static final int UNKNOWN = -1;
+    private static final ExecutorService highlighter = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "Highlighter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CodeArea area = new CodeArea();
+    private final PieceTable document = new PieceTable();
+    // the lexer state at the start of each line
+    private int[] lineStates = new int[64];
+    private int lineCount = 1;
+    // counts the edits, so that results lexed from an old snapshot are not applied
+    private int version;
+    // the lines waiting to be lexed, or -1 if there are none
+    private int dirtyFirst = -1;
+    private int dirtyLast = -1;
+    private boolean lexing;
+
+    public CodeEditor() {
+        super();
+        getStyleClass().add("code-editor");
+        lineStates[0] = JavaLexer.CODE;
+        area.setParagraphGraphicFactory(LineNumberFactory.get(area));
+        area.plainTextChanges().subscribe(this::textChanged);
+        getChildren().add(new VirtualizedScrollPane<>(area));
+    }
+
+    public CodeArea getCodeArea() {
+        return area;
+    }
+
+    @Override
+    public int getLength() {
+        return document.getLength();
+    }
+
+    @Override
+    public CharSequence getText() {
+        return document.getText();
+    }
+
+    @Override
+    public String getText(int start, int end) {
+        return document.getText(start, end);
+    }
+
+    @Override
+    public void insertText(int position, CharSequence text) {
+        area.insertText(position, text.toString());
+    }
+
+    @Override
+    public void deleteText(int start, int end) {
+        area.deleteText(start, end);
+    }
+
+    @Override
+    public void replaceText(int start, int end, CharSequence text) {
+        area.replaceText(start, end, text.toString());
+    }
+
+    @Override
+    public void appendText(CharSequence text) {
+        area.appendText(text.toString());
+    }
+
+    @Override
+    public int getLineCount() {
+        return document.getLineCount();
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        return document.getLineStart(line);
+    }
+
+    @Override
+    public int getLineOf(int position) {
+        return document.getLineOf(position);
+    }
+
+    private void textChanged(PlainTextChange change) {
+        final int position = change.getPosition();
+        final int firstLine = document.getLineOf(position);
+        final int removedLines = document.getLineOf(change.getRemovalEnd()) - firstLine;
+        document.replaceText(position, change.getRemovalEnd(), change.getInserted());
+        final int insertedLines = document.getLineOf(change.getInsertionEnd()) - firstLine;
+        version++;
+        shiftLines(firstLine, removedLines, insertedLines);
+        markDirty(firstLine, firstLine + insertedLines);
+        lex();
+    }
+
+    /**
+     * Moves the line states after an edit, the new lines having no state yet
+     */
+    private void shiftLines(int firstLine, int removedLines, int insertedLines) {
+        final int delta = insertedLines - removedLines;
+        final int oldCount = lineCount;
+        lineCount += delta;
+        if (lineCount > lineStates.length)
+            lineStates = Arrays.copyOf(lineStates, Math.max(lineCount, lineStates.length * 2));
+        final int movedFrom = firstLine + removedLines + 1;
+        System.arraycopy(lineStates, movedFrom, lineStates, firstLine + insertedLines + 1, oldCount - movedFrom);
+        Arrays.fill(lineStates, firstLine + 1, firstLine + insertedLines + 1, UNKNOWN);
+        if (dirtyFirst >= 0) {
+            dirtyFirst = shiftLine(dirtyFirst, firstLine, removedLines, insertedLines);
+            dirtyLast = shiftLine(dirtyLast, firstLine, removedLines, insertedLines);
+        }
+    }
+
+    private static int shiftLine(int line, int firstLine, int removedLines, int insertedLines) {
+        if (line <= firstLine)
+            return line;
+        if (line > firstLine + removedLines)
+            return line + insertedLines - removedLines;
+        return firstLine + insertedLines; // the line was removed, what replaced it stands in for it
+    }
+
+    private void markDirty(int first, int last) {
+        if (dirtyFirst < 0) {
+            dirtyFirst = first;
+            dirtyLast = last;
+        } else {
+            dirtyFirst = Math.min(dirtyFirst, first);
+            dirtyLast = Math.max(dirtyLast, last);
+        }
+        dirtyLast = Math.min(dirtyLast, lineCount - 1);
+    }
+
+    /**
+     * Lexes the first dirty lines in the background, unless lexing is already underway
+     */
+    private void lex() {
+        if (lexing || dirtyFirst < 0)
+            return;
+        int first = dirtyFirst;
+        while (lineStates[first] == UNKNOWN)
+            first--; // line 0 always starts in code
+        final int last = Math.min(dirtyLast, first + MAX_JOB_LINES - 1);
+        final int start = document.getLineStart(first);
+        final int end = last + 1 < lineCount ? document.getLineStart(last + 1) - 1 : document.getLength();
+        final int state = lineStates[first];
+        final CharSequence text = document.getText();
+        final int jobVersion = version;
+        final int lexedFirst = first;
+        lexing = true;
+        highlighter.execute(() -> {
+            final int[] states = new int[last - lexedFirst + 2];
+            states[0] = state;
+            final StyleSpans<Collection<String>> styles = lexLines(text, start, end, states);
+            Platform.runLater(() -> lexed(jobVersion, lexedFirst, last, start, styles, states));
+        });
+    }
+
+    /**
+     * Lexes whole lines of a snapshot
+     *
+     * @param states holds the state at the start of the first line, and is filled with the states of the lines after
+     * @return the style spans of the text from start to end
+     */
+    private static StyleSpans<Collection<String>> lexLines(CharSequence text, int start, int end, int[] states) {
+        final StyleSpansBuilder<Collection<String>> spans = new StyleSpansBuilder<>();
+        spans.add(Collections.emptyList(), 0); // an empty line adds no tokens
+        int lineStart = start;
+        for (int i = 1; i < states.length; i++) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && text.charAt(lineEnd) != '\n')
+                lineEnd++;
+            states[i] = JavaLexer.lexLine(text, lineStart, lineEnd, states[i - 1], (styleClass, length) ->
+                    spans.add(styleClass == null ? Collections.emptyList() : Collections.singleton(styleClass), length));
+            if (lineEnd < end)
+                spans.add(Collections.emptyList(), 1); // the line break
+            lineStart = lineEnd + 1;
+        }
+        return spans.create();
+    }
+
+    private void lexed(int jobVersion, int first, int last, int start, StyleSpans<Collection<String>> styles,
+                       int[] states) {
+        lexing = false;
+        if (jobVersion == version) {
+            area.setStyleSpans(start, styles);
+            final boolean carried = last + 1 < lineCount && lineStates[last + 1] != states[states.length - 1];
+            System.arraycopy(states, 1, lineStates, first + 1, Math.min(states.length - 1, lineCount - first - 1));
+            if (last >= dirtyLast) {
+                dirtyFirst = dirtyLast = -1;
+            } else {
+                dirtyFirst = last + 1;
+            }
+            if (carried)
+                markDirty(last + 1, last + 1);
+        }
+        // otherwise the text changed while lexing, and the lines are still dirty
+        lex();
+    }
+}
@@ -1,35 +1,79 @@
 package com.sdc.three.ide;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.stream.Stream;
 
+/**
+ * The errors of one compiled file. The lines are parsed with a {@link DiagnosticParser} as the output is read, and the
+ * output is kept as javac wrote it. Errors made from parsed lines alone rebuild their stack trace when asked for.
+ */
 public class CompileError {
 
-    private final String stackTrace;
+    private String stackTrace;
     private final ArrayList<LineError> lines = new ArrayList<>();
 
     public CompileError(String stackTrace) {
         this.stackTrace = stackTrace;
-        parseStackTrace();
+        try {
+            new DiagnosticParser(lines::add).parse(new BufferedReader(new StringReader(stackTrace)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("StringReader failed", e);
+        }
     }
 
     public CompileError(Stream<String> stream) {
-        StringBuilder builder = new StringBuilder();
-        stream.forEach(line -> builder.append(line).append("\n"));
+        final StringBuilder builder = new StringBuilder();
+        final DiagnosticParser parser = new DiagnosticParser(lines::add);
+        stream.forEachOrdered(line -> {
+            builder.append(line).append('\n');
+            parser.accept(line);
+        });
+        parser.finish();
         stackTrace = builder.toString();
-        parseStackTrace();
     }
 
-    private void parseStackTrace() {
-        // TODO
+    CompileError(List<LineError> lines) {
+        this.lines.addAll(lines);
+    }
+
+    /**
+     * Creates a CompileError from output that was already parsed
+     * @param stackTrace the output as javac wrote it
+     * @param lines the lines parsed from it
+     */
+    CompileError(String stackTrace, List<LineError> lines) {
+        this.stackTrace = stackTrace;
+        this.lines.addAll(lines);
     }
 
     public String getStackTrace() {
+        if (stackTrace == null) {
+            StringBuilder builder = new StringBuilder();
+            lines.forEach(line -> builder.append(line).append('\n'));
+            stackTrace = builder.toString();
+        }
         return stackTrace;
     }
 
     public Collection<LineError> getLines() {
         return lines;
     }
+
+    /**
+     * Returns if any of the lines is an error rather than a warning or note
+     * @return true if the file failed to compile
+     */
+    public boolean hasErrors() {
+        for (LineError line : lines) {
+            if (line.getSeverity() == LineError.Severity.ERROR)
+                return true;
+        }
+        return false;
+    }
 }
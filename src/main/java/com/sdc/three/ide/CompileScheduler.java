@@ -0,0 +1,326 @@
+package com.sdc.three.ide;
+
+import javax.tools.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * The CompileScheduler splits a build into independent compilation units and compiles them in-process at the same
+ * time, on a pool bounded by the number of processors.
+ *
+ * Units are the connected components of the {@link DependencyGraph} over the files of the build, packed so that each
+ * processor gets about the same number of files. Builds too small to be worth splitting are compiled as one unit.
+ *
+ * StandardJavaFileManagers are not thread safe, so each running unit takes its own from a pool of warm file managers,
+ * returning it once the unit is compiled.
+ *
+ * Class files are written beside their sources, or into an output directory if one is given, in which case every class
+ * file written can be reported along with the source it was compiled from, so that the outputs of a build are known.
+ */
+class CompileScheduler {
+
+    private final static int PROCESSORS = Runtime.getRuntime().availableProcessors();
+    /** the least number of files in a unit before a build is split */
+    final static int MIN_UNIT_SIZE = 16;
+
+    private final JavaCompiler javac;
+    private final DependencyGraph graph;
+    private final ThreadPoolExecutor pool;
+    private final BlockingQueue<StandardJavaFileManager> fileManagers = new LinkedBlockingQueue<>();
+
+    /**
+     * Creates a CompileScheduler
+     *
+     * @param javac the system compiler
+     * @param graph the graph to find the packages and dependencies of the compiled files in
+     */
+    CompileScheduler(JavaCompiler javac, DependencyGraph graph) {
+        this.javac = javac;
+        this.graph = graph;
+        pool = new ThreadPoolExecutor(PROCESSORS, PROCESSORS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "CompileScheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Compiles the files beside their sources, reporting the number of compiled files each time a unit finishes.
+     *
+     * @param files the validated files to compile
+     * @param progress called with the number of compiled files and the total number of files
+     * @param listener called with every error as soon as it is found, from the thread compiling its unit
+     * @return a map of the files with at least one error to their CompileError
+     * @throws IOException if a file manager fails
+     * @throws InterruptedException if interrupted while waiting on the units, which are then canceled
+     */
+    HashMap<File, CompileError> compile(List<File> files, Progress progress, LineErrorListener listener) throws IOException, InterruptedException {
+        return compile(files, null, progress, listener, null);
+    }
+
+    /**
+     * Compiles the files, reporting the number of compiled files each time a unit finishes.
+     *
+     * @param files the validated files to compile
+     * @param outputDirectory the directory to write the class files to, or null to write them beside their sources
+     * @param progress called with the number of compiled files and the total number of files
+     * @param listener called with every error as soon as it is found, from the thread compiling its unit
+     * @param written called with the source and the path of every class file written, from the thread compiling its
+     *                unit, or null. The source is null if javac did not say which source the class was compiled from.
+     * @return a map of the files with at least one error to their CompileError
+     * @throws IOException if a file manager fails
+     * @throws InterruptedException if interrupted while waiting on the units, which are then canceled
+     */
+    HashMap<File, CompileError> compile(List<File> files, Path outputDirectory, Progress progress,
+                                        LineErrorListener listener, BiConsumer<File, Path> written) throws IOException, InterruptedException {
+        return compile(files, sourceOptions(files, graph), outputDirectory, progress, listener, written);
+    }
+
+    /**
+     * Compiles some files of a build against the source roots of the whole build, as
+     * {@link #compile(List, Path, Progress, LineErrorListener, BiConsumer)} does
+     *
+     * @param sourceOptions the options of the whole build, from {@link #sourceOptions(List, DependencyGraph)}
+     */
+    HashMap<File, CompileError> compile(List<File> files, List<String> sourceOptions, Path outputDirectory,
+                                        Progress progress, LineErrorListener listener,
+                                        BiConsumer<File, Path> written) throws IOException, InterruptedException {
+        final List<String> options = new ArrayList<>(sourceOptions);
+        if (outputDirectory != null)
+            options.addAll(outputOptions(outputDirectory));
+        final List<List<File>> units = split(files, PROCESSORS);
+        if (units.size() <= 1) {
+            progress.update(0, files.size());
+            HashMap<File, CompileError> errors = compileUnit(files, options, listener, written);
+            progress.update(files.size(), files.size());
+            return errors;
+        }
+
+        // units are independent, but may share sources outside of the build. Do not write those concurrently
+        options.add("-implicit:none");
+        final AtomicLong compiled = new AtomicLong();
+        final CompletionService<HashMap<File, CompileError>> completion = new ExecutorCompletionService<>(pool);
+        final List<Future<HashMap<File, CompileError>>> futures = new ArrayList<>(units.size());
+        for (List<File> unit : units) {
+            futures.add(completion.submit(() -> {
+                HashMap<File, CompileError> errors = compileUnit(unit, options, listener, written);
+                progress.update(compiled.addAndGet(unit.size()), files.size());
+                return errors;
+            }));
+        }
+        final HashMap<File, CompileError> errors = new HashMap<>(files.size() * 2 + 1);
+        try {
+            for (int i = 0; i < units.size(); i++)
+                errors.putAll(completion.take().get());
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e;
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IllegalStateException("Failed to compile a unit", e.getCause());
+        }
+        return errors;
+    }
+
+    /**
+     * Splits the files into at most maxUnits units without separating any dependency components, unless the files are
+     * too few to make splitting worthwhile.
+     *
+     * @param files the files of the build
+     * @param maxUnits the most units to return
+     * @return the units, each a non-empty list of files
+     */
+    List<List<File>> split(List<File> files, int maxUnits) {
+        final int units = Math.min(maxUnits, files.size() / MIN_UNIT_SIZE);
+        if (units <= 1)
+            return files.isEmpty() ? Collections.emptyList() : Collections.singletonList(files);
+
+        final List<List<File>> components = graph.components(files);
+        components.sort((a, b) -> Integer.compare(b.size(), a.size()));
+        // largest first into the smallest unit
+        final PriorityQueue<List<File>> bins = new PriorityQueue<>(units, Comparator.comparingInt(List::size));
+        for (int i = 0; i < units; i++)
+            bins.add(new ArrayList<>());
+        for (List<File> component : components) {
+            List<File> bin = bins.poll();
+            bin.addAll(component);
+            bins.add(bin);
+        }
+        final List<List<File>> split = new ArrayList<>(units);
+        for (List<File> bin : bins) {
+            if (!bin.isEmpty())
+                split.add(bin);
+        }
+        return split;
+    }
+
+    private HashMap<File, CompileError> compileUnit(List<File> files, List<String> options,
+                                                    LineErrorListener listener, BiConsumer<File, Path> written) throws IOException {
+        StandardJavaFileManager fileManager = fileManagers.poll();
+        if (fileManager == null)
+            fileManager = javac.getStandardFileManager(null, Locale.getDefault(), StandardCharsets.UTF_8);
+        try {
+            return compileBatch(javac, files, fileManager, options, listener, written);
+        } finally {
+            fileManagers.offer(fileManager);
+        }
+    }
+
+    /**
+     * Compiles all the files in one in-process CompilationTask. Diagnostics are turned into LineErrors as javac
+     * reports them, and passed on to the listener straight away.
+     *
+     * @param javac the system compiler
+     * @param files the validated files to compile
+     * @param fileManager the file manager to reuse between builds. It must not be used by another thread meanwhile
+     * @param options the javac options
+     * @param listener called with every error as soon as it is found
+     * @return a map of the files with at least one error to their CompileError
+     * @throws IOException if the file manager fails to flush
+     */
+    static HashMap<File, CompileError> compileBatch(JavaCompiler javac, List<File> files,
+                                                  StandardJavaFileManager fileManager, List<String> options,
+                                                  LineErrorListener listener) throws IOException {
+        return compileBatch(javac, files, fileManager, options, listener, null);
+    }
+
+    /**
+     * Compiles all the files in one in-process CompilationTask, as {@link #compileBatch(JavaCompiler, List,
+     * StandardJavaFileManager, List, LineErrorListener)} does, reporting every class file written
+     *
+     * @param written called with the source and the path of every class file written, or null
+     */
+    static HashMap<File, CompileError> compileBatch(JavaCompiler javac, List<File> files,
+                                                  StandardJavaFileManager fileManager, List<String> options,
+                                                  LineErrorListener listener, BiConsumer<File, Path> written) throws IOException {
+        final HashMap<File, CompileError> errors = new HashMap<>(files.size() * 2 + 1);
+        if (files.isEmpty())
+            return errors;
+        final HashMap<Path, File> sources = new HashMap<>(files.size() * 2 + 1);
+        for (File file : files)
+            sources.put(file.toPath().toAbsolutePath().normalize(), file);
+
+        final HashMap<File, List<LineError>> byFile = new HashMap<>();
+        final List<LineError> general = new ArrayList<>();
+        final DiagnosticListener<JavaFileObject> diagnostics = diagnostic -> {
+            File file = null;
+            if (diagnostic.getSource() != null) {
+                final Path path = Path.of(diagnostic.getSource().toUri()).normalize();
+                file = sources.getOrDefault(path, path.toFile());
+            }
+            final LineError error = toLineError(file, diagnostic);
+            listener.errorFound(error);
+            if (file == null)
+                general.add(error);
+            else
+                byFile.computeIfAbsent(file, f -> new ArrayList<>()).add(error);
+        };
+        Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromFiles(files);
+        final JavaFileManager taskManager = written == null ? fileManager : new RecordingFileManager(fileManager, written);
+        final boolean success = javac.getTask(null, taskManager, diagnostics, options, null, units).call();
+        // drop the cached file contents so the next build rereads edited sources
+        fileManager.flush();
+        if (success)
+            return errors;
+
+        for (File file : files) {
+            final List<LineError> lines = byFile.getOrDefault(file, new ArrayList<>());
+            lines.addAll(general);
+            final CompileError error = new CompileError(lines);
+            if (error.hasErrors())
+                errors.put(file, error);
+        }
+        return errors;
+    }
+
+    /**
+     * Returns the options pointing javac at the source roots of the files
+     *
+     * @param files the files of the build
+     * @param graph the graph to read the packages from, refreshed for any changed files
+     * @return the javac options
+     */
+    static List<String> sourceOptions(List<File> files, DependencyGraph graph) {
+        final LinkedHashSet<String> roots = new LinkedHashSet<>();
+        for (File file : files) {
+            try {
+                graph.refresh(file);
+            } catch (IOException e) {
+                IdeMetrics.error("Failed to read the package of " + file + ": " + e.getMessage());
+            }
+            roots.add(graph.getSourceRoot(file).toString());
+        }
+        final String path = String.join(File.pathSeparator, roots);
+        return List.of("-sourcepath", path, "-classpath", path);
+    }
+
+    /**
+     * Returns the options writing the class files into a directory
+     *
+     * @param outputDirectory the directory, created if needed
+     * @return the javac options
+     * @throws IOException if the directory could not be created
+     */
+    static List<String> outputOptions(Path outputDirectory) throws IOException {
+        Files.createDirectories(outputDirectory);
+        return List.of("-d", outputDirectory.toString());
+    }
+
+    private static LineError toLineError(File file, Diagnostic<? extends JavaFileObject> diagnostic) {
+        final LineError.Severity severity;
+        switch (diagnostic.getKind()) {
+            case ERROR:
+                severity = LineError.Severity.ERROR;
+                break;
+            case WARNING:
+            case MANDATORY_WARNING:
+                severity = LineError.Severity.WARNING;
+                break;
+            default:
+                severity = LineError.Severity.NOTE;
+        }
+        final long line = diagnostic.getLineNumber();
+        final long column = diagnostic.getColumnNumber();
+        return new LineError(file, line == Diagnostic.NOPOS ? 0 : (int) line, column == Diagnostic.NOPOS ? 0 : (int) column,
+                severity, diagnostic.getMessage(null));
+    }
+
+    interface Progress {
+        void update(long compiled, long total);
+    }
+
+    /**
+     * Passes on the path of every class file javac opens for writing, with the source it is compiled from
+     */
+    private static class RecordingFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        private final BiConsumer<File, Path> written;
+
+        RecordingFileManager(StandardJavaFileManager fileManager, BiConsumer<File, Path> written) {
+            super(fileManager);
+            this.written = written;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                   FileObject sibling) throws IOException {
+            final JavaFileObject file = super.getJavaFileForOutput(location, className, kind, sibling);
+            if (kind == JavaFileObject.Kind.CLASS) {
+                final File source = sibling != null && "file".equals(sibling.toUri().getScheme())
+                        ? DependencyGraph.key(Path.of(sibling.toUri()).toFile()) : null;
+                written.accept(source, Path.of(file.toUri()).normalize());
+            }
+            return file;
+        }
+    }
+}
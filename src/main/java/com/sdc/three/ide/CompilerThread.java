@@ -3,17 +3,79 @@ package com.sdc.three.ide;
 import javafx.beans.property.*;
 import javafx.concurrent.Task;
 
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 import java.io.*;
-import java.util.HashMap;
-import java.util.List;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 
+/**
+ * Compiles java files on a background daemon thread.
+ *
+ * When the running JVM provides a system compiler ({@link ToolProvider#getSystemJavaCompiler()}), the list is compiled
+ * in-process by a {@link CompileScheduler}, which splits it into independent units compiled at the same time on warm
+ * StandardJavaFileManagers. Runtimes without the jdk.compiler module fall back to one javac process per file.
+ *
+ * The source roots of the files (found through the package each file declares) are passed as the sourcepath and
+ * classpath, so a build of only some files of a project still resolves the types of the others.
+ *
+ * Class files are written beside their sources, or into an output directory if one is given. With an output directory
+ * and a {@link BuildCache}, an in-process build restores each source that was built before, with the same inputs, from
+ * the cache, and compiles only the others, which are then added to it.
+ *
+ * Every build is timed into the {@link IdeMetrics} and recorded as an {@link IdeEvents.Compile} event.
+ */
 public class CompilerThread implements Compiler {
 
+    private static final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+
     private CompilerTask task;
+    private final DependencyGraph graph;
+    private final CompileScheduler scheduler;
+    private final Path outputDirectory;
+    private final BuildCache cache;
+    private final List<LineErrorListener> listeners = Collections.synchronizedList(new LinkedList<>());
     private final DoubleProperty progressProperty = new SimpleDoubleProperty(0.0);
     private final BooleanProperty doneProperty = new SimpleBooleanProperty(false);
 
+    public CompilerThread() {
+        this(new DependencyGraph());
+    }
+
+    /**
+     * Creates a CompilerThread sharing a DependencyGraph, so that the sources are not scanned twice
+     * @param graph the graph to read the packages of the compiled files from
+     */
+    public CompilerThread(DependencyGraph graph) {
+        this(graph, null, null);
+    }
+
+    /**
+     * Creates a CompilerThread writing its class files into a directory
+     *
+     * @param graph the graph to read the packages of the compiled files from
+     * @param outputDirectory the directory to write the class files to, created if needed, or null to write them
+     *                        beside their sources
+     * @param cache the cache to restore builds from and add builds to, or null for none. Only used with an output
+     *              directory.
+     */
+    public CompilerThread(DependencyGraph graph, Path outputDirectory, BuildCache cache) {
+        if (graph == null) throw new NullPointerException("Graph cannot be null");
+        this.graph = graph;
+        this.outputDirectory = outputDirectory == null ? null : outputDirectory.toAbsolutePath().normalize();
+        this.cache = outputDirectory == null ? null : cache;
+        scheduler = javac == null ? null : new CompileScheduler(javac, graph);
+    }
+
+    /**
+     * @return the directory the class files are written to, or null if they are written beside their sources
+     */
+    public Path getOutputDirectory() {
+        return outputDirectory;
+    }
+
     @Override
     public void compile(List<File> files) {
         if (files == null) throw new NullPointerException("Files cannot be a null pointer");
@@ -37,12 +99,28 @@ public class CompilerThread implements Compiler {
         }
     }
 
+    /**
+     * Returns the listeners told about each error while the compilation is still running, so that the first errors
+     * can be shown before the whole build finishes.
+     * @return the modifiable list of listeners
+     */
+    public List<LineErrorListener> getListeners() {
+        return listeners;
+    }
+
+    private void notifyListeners(LineError error) {
+        synchronized (listeners) {
+            for (LineErrorListener listener : listeners)
+                listener.errorFound(error);
+        }
+    }
+
     @Override
     public HashMap<File, CompileError> getError() {
         try {
             return task.get();
         } catch (InterruptedException | ExecutionException e) {
-            System.err.println("Compile thread interrupted before completion. Stopped compilation to return empty HashMap");
+            IdeMetrics.error("Compile thread interrupted before completion. Stopped compilation to return empty HashMap");
             return new HashMap<>();
         }
     }
@@ -67,7 +145,7 @@ public class CompilerThread implements Compiler {
         return doneProperty.get();
     }
 
-    private static class CompilerTask extends Task<HashMap<File, CompileError>> {
+    private class CompilerTask extends Task<HashMap<File, CompileError>> {
 
         private final List<File> files;
 
@@ -77,8 +155,27 @@ public class CompilerThread implements Compiler {
 
         @Override
         protected HashMap<File, CompileError> call() throws Exception {
-            final HashMap<File, CompileError> errors = new HashMap<>(files.size() * 2 + 1);
+            final IdeEvents.Compile event = new IdeEvents.Compile();
+            event.begin();
+            final long start = System.nanoTime();
+            final HashMap<File, CompileError> errors = build(event);
+            final long nanos = System.nanoTime() - start;
+            IdeMetrics.get().compiled(files.size(), nanos);
+            event.files = files.size();
+            event.failed = errors.size();
+            event.perFile = files.isEmpty() ? 0 : nanos / files.size();
+            event.commit();
+            return errors;
+        }
+
+        private HashMap<File, CompileError> build(IdeEvents.Compile event) throws Exception {
             // files already validated
+            if (scheduler != null && cache != null)
+                return buildCached(event);
+            if (scheduler != null)
+                return scheduler.compile(files, outputDirectory, this::updateProgress,
+                        CompilerThread.this::notifyListeners, null);
+            final HashMap<File, CompileError> errors = new HashMap<>(files.size() * 2 + 1);
             for (File file : files) {
                 CompileError error = runProcess(file);
                 if (error != null) {
@@ -88,13 +185,111 @@ public class CompilerThread implements Compiler {
             return errors;
         }
 
+        /**
+         * Restores each source from the cache, then compiles the sources that were not in it and adds them to the
+         * cache. A failure of the cache is reported and the build goes on without it.
+         */
+        private HashMap<File, CompileError> buildCached(IdeEvents.Compile event) throws Exception {
+            final List<String> options = CompileScheduler.sourceOptions(files, graph);
+            final HashMap<File, CompileError> errors = new HashMap<>(files.size() * 2 + 1);
+            final List<File> missed = new ArrayList<>(files.size());
+            Map<File, String> keys = null;
+            try {
+                keys = BuildCache.keys(files, options, graph);
+                cache.clear(outputDirectory, files);
+                for (File file : files) {
+                    final HashMap<File, CompileError> cached = cache.restore(keys.get(file), file, outputDirectory,
+                            CompilerThread.this::notifyListeners);
+                    if (cached == null)
+                        missed.add(file);
+                    else
+                        errors.putAll(asBuilt(cached));
+                }
+            } catch (IOException e) {
+                IdeMetrics.error("Failed to read the build cache: " + e.getMessage());
+                keys = null;
+                errors.clear();
+                missed.clear();
+                missed.addAll(files);
+            }
+            final int restored = files.size() - missed.size();
+            updateProgress(restored, files.size());
+            if (missed.isEmpty()) {
+                event.cached = true;
+                return errors;
+            }
+
+            final Map<File, Set<Path>> outputs = new ConcurrentHashMap<>();
+            final List<LineError> diagnostics = Collections.synchronizedList(new ArrayList<>());
+            errors.putAll(scheduler.compile(missed, options, outputDirectory,
+                    (compiled, total) -> updateProgress(restored + compiled, files.size()),
+                    error -> {
+                        diagnostics.add(error);
+                        notifyListeners(error);
+                    }, (source, output) -> {
+                        if (source != null)
+                            outputs.computeIfAbsent(source, f -> ConcurrentHashMap.newKeySet()).add(output);
+                    }));
+            if (keys == null || isCancelled())
+                return errors;
+            for (LineError diagnostic : diagnostics) {
+                if (diagnostic.getFile() == null && diagnostic.getSeverity() == LineError.Severity.ERROR)
+                    return errors; // an error of no source in particular cannot be cached with one
+            }
+            try {
+                for (File file : missed) {
+                    final File source = DependencyGraph.key(file);
+                    final List<LineError> own = new ArrayList<>();
+                    for (LineError diagnostic : diagnostics) {
+                        if (diagnostic.getFile() != null && DependencyGraph.key(diagnostic.getFile()).equals(source))
+                            own.add(diagnostic);
+                    }
+                    final CompileError error = errors.get(file);
+                    cache.put(keys.get(file), file, outputDirectory,
+                            outputs.getOrDefault(source, Collections.emptySet()), own,
+                            error == null ? Collections.emptyMap() : Map.of(file, error));
+                }
+            } catch (IOException e) {
+                IdeMetrics.error("Failed to add the build to the build cache: " + e.getMessage());
+            }
+            return errors;
+        }
+
+        /**
+         * Returns restored errors keyed by the files of this build, which may name the same sources by other paths
+         */
+        private HashMap<File, CompileError> asBuilt(HashMap<File, CompileError> restored) {
+            final HashMap<File, File> byKey = new HashMap<>(files.size() * 2 + 1);
+            for (File file : files)
+                byKey.put(DependencyGraph.key(file), file);
+            final HashMap<File, CompileError> errors = new HashMap<>(restored.size() * 2 + 1);
+            for (Map.Entry<File, CompileError> error : restored.entrySet())
+                errors.put(byKey.getOrDefault(DependencyGraph.key(error.getKey()), error.getKey()), error.getValue());
+            return errors;
+        }
+
         private CompileError runProcess(File file) throws Exception {
-            String[] args = {"javac", file.getAbsolutePath()};
-            Process p = Runtime.getRuntime().exec(args);
+            final List<String> args = new ArrayList<>(List.of("javac", file.getAbsolutePath()));
+            if (outputDirectory != null)
+                args.addAll(CompileScheduler.outputOptions(outputDirectory));
+            Process p = new ProcessBuilder(args).start();
+            final List<LineError> lines = new ArrayList<>();
+            final StringBuilder output = new StringBuilder();
+            // read while javac runs so errors are passed on early, and javac never blocks on a full pipe
             try (BufferedReader errorStream = new BufferedReader(new InputStreamReader(p.getErrorStream()))) {
+                final DiagnosticParser parser = new DiagnosticParser(error -> {
+                    lines.add(error);
+                    notifyListeners(error);
+                });
+                String line;
+                while ((line = errorStream.readLine()) != null) {
+                    output.append(line).append('\n');
+                    parser.accept(line);
+                }
+                parser.finish();
                 final int exit = p.waitFor();
                 if (exit != 0)
-                    return new CompileError(errorStream.lines());
+                    return new CompileError(output.toString(), lines);
             } // don't catch error - throw it
             return null;
         }
@@ -0,0 +1,209 @@
+package com.sdc.three.ide;
+
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.collections.ObservableSet;
+import javafx.collections.SetChangeListener;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * An ObservableSet that any thread may change, with O(1) adds, removes and lookups backed by a concurrent hash set.
+ *
+ * Changes are not reported one by one as they are made. Each element's net change is recorded, an add and a remove of
+ * the same element cancelling out, and all the recorded changes are delivered together in one batch on the FX thread:
+ * the set listeners get one change per element that changed, then the invalidation listeners are told once. Nothing is
+ * recorded while there are no listeners. If the FX toolkit is not running, batches are delivered on the thread that
+ * made the change.
+ *
+ * @param <E> the type of the elements
+ */
+public class ConcurrentObservableSet<E> extends AbstractSet<E> implements ObservableSet<E> {
+
+    private final Set<E> elements = ConcurrentHashMap.newKeySet();
+    private final List<SetChangeListener<? super E>> setListeners = new CopyOnWriteArrayList<>();
+    private final List<InvalidationListener> invalidationListeners = new CopyOnWriteArrayList<>();
+    private final Executor delivery;
+    // the net change of each element since the last batch, true if added. Guarded by itself.
+    private final LinkedHashMap<E, Boolean> pending = new LinkedHashMap<>();
+    private boolean scheduled;
+
+    public ConcurrentObservableSet() {
+        this(ConcurrentObservableSet::runLater);
+    }
+
+    /**
+     * Creates a ConcurrentObservableSet
+     * @param delivery runs the delivery of each batch
+     */
+    ConcurrentObservableSet(Executor delivery) {
+        this.delivery = delivery;
+    }
+
+    @Override
+    public boolean add(E element) {
+        if (!elements.add(element))
+            return false;
+        changed(element, true);
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object element) {
+        if (!elements.remove(element))
+            return false;
+        changed((E) element, false);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object element) {
+        return elements.contains(element);
+    }
+
+    @Override
+    public int size() {
+        return elements.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return elements.isEmpty();
+    }
+
+    /**
+     * @return an iterator that is weakly consistent, as those of concurrent collections are
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final Iterator<E> iterator = elements.iterator();
+        return new Iterator<>() {
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return last = iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+                changed(last, false);
+            }
+        };
+    }
+
+    @Override
+    public void addListener(SetChangeListener<? super E> listener) {
+        setListeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(SetChangeListener<? super E> listener) {
+        setListeners.remove(listener);
+    }
+
+    @Override
+    public void addListener(InvalidationListener listener) {
+        invalidationListeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(InvalidationListener listener) {
+        invalidationListeners.remove(listener);
+    }
+
+    private void changed(E element, boolean added) {
+        if (setListeners.isEmpty() && invalidationListeners.isEmpty())
+            return;
+        synchronized (pending) {
+            final Boolean previous = pending.get(element);
+            if (previous != null && previous != added)
+                pending.remove(element); // back as it was when the last batch was delivered
+            else
+                pending.put(element, added);
+            if (scheduled || pending.isEmpty())
+                return;
+            scheduled = true;
+        }
+        delivery.execute(this::deliver);
+    }
+
+    private void deliver() {
+        final List<Map.Entry<E, Boolean>> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending.entrySet());
+            pending.clear();
+            scheduled = false;
+        }
+        if (batch.isEmpty())
+            return;
+        for (Map.Entry<E, Boolean> change : batch) {
+            final Change setChange = new Change(change.getKey(), change.getValue());
+            for (SetChangeListener<? super E> listener : setListeners)
+                listener.onChanged(setChange);
+        }
+        for (InvalidationListener listener : invalidationListeners)
+            listener.invalidated(this);
+    }
+
+    private static void runLater(Runnable runnable) {
+        try {
+            Platform.runLater(runnable);
+        } catch (IllegalStateException e) {
+            runnable.run(); // the FX toolkit is not running
+        }
+    }
+
+    private class Change extends SetChangeListener.Change<E> {
+
+        private final E element;
+        private final boolean added;
+
+        Change(E element, boolean added) {
+            super(ConcurrentObservableSet.this);
+            this.element = element;
+            this.added = added;
+        }
+
+        @Override
+        public boolean wasAdded() {
+            return added;
+        }
+
+        @Override
+        public boolean wasRemoved() {
+            return !added;
+        }
+
+        @Override
+        public E getElementAdded() {
+            return added ? element : null;
+        }
+
+        @Override
+        public E getElementRemoved() {
+            return added ? null : element;
+        }
+
+        @Override
+        public String toString() {
+            return (added ? "added " : "removed ") + element;
+        }
+    }
+}
@@ -1,20 +1,139 @@
 package com.sdc.three.ide;
 
+import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.Group;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextInputDialog;
+import javafx.stage.DirectoryChooser;
+import javafx.stage.Stage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class Controller {
 
+    private volatile TrigramIndex index;
+    /** the workspace last asked for, guarded by this. An index built for any other is detached and discarded */
+    private Workspace indexed;
+    /** the number of times a workspace was asked to be opened, guarded by this */
+    private long opened;
+
     @FXML
     private void initialize() {
 
         // TODO
     }
 
+    /**
+     * Asks for a directory and opens it as the workspace. The directory is scanned and indexed on a background thread.
+     */
+    @FXML
+    private void open() {
+        final DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Open Workspace");
+        final File dir = chooser.showDialog(null);
+        if (dir == null)
+            return;
+        final long opening;
+        synchronized (this) {
+            opening = ++opened;
+        }
+        final Thread thread = new Thread(() -> {
+            try {
+                final Workspace workspace = new Workspace(dir);
+                synchronized (this) {
+                    if (opened != opening)
+                        return; // another directory was opened meanwhile
+                    setWorkspace(workspace);
+                }
+            } catch (IOException | InvalidFileException e) {
+                IdeMetrics.error("Failed to open " + dir + ": " + e.getMessage());
+                Platform.runLater(() -> new Alert(Alert.AlertType.ERROR, "Failed to open " + dir).show());
+            }
+        }, "Open " + dir.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Indexes a workspace for Find on a background thread, replacing the index of the last workspace. An index still
+     * being built for an earlier workspace is detached once it is done.
+     * @param workspace the workspace to search, or null for none
+     */
+    public synchronized void setWorkspace(Workspace workspace) {
+        final TrigramIndex old = index;
+        index = null;
+        indexed = workspace;
+        if (old != null)
+            old.detach();
+        if (workspace == null)
+            return;
+        final Thread thread = new Thread(() -> {
+            try {
+                final TrigramIndex built = new TrigramIndex(workspace);
+                synchronized (this) {
+                    if (indexed == workspace) {
+                        index = built;
+                        return;
+                    }
+                }
+                built.detach(); // replaced while it was built
+            } catch (IOException e) {
+                IdeMetrics.error("Failed to index " + workspace.getDirectory() + ": " + e.getMessage());
+            }
+        }, "Index " + workspace.getDirectory().getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Asks for text to find in the workspace, and lists the matches in a new window as they are found. Text between
+     * slashes, as in /foo.*bar/, is taken as a regex; any other text is found as is, ignoring case.
+     */
+    @FXML
+    private void find() {
+        final TrigramIndex index = this.index;
+        if (index == null) {
+            new Alert(Alert.AlertType.INFORMATION, "No workspace has been indexed yet").show();
+            return;
+        }
+        final TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("Find");
+        dialog.setHeaderText("Find in workspace (/regex/ for a regex)");
+        final Optional<String> query = dialog.showAndWait();
+        if (query.isEmpty() || query.get().isEmpty())
+            return;
+        final String text = query.get();
+        final Pattern pattern;
+        try {
+            pattern = text.length() > 2 && text.startsWith("/") && text.endsWith("/")
+                    ? Pattern.compile(text.substring(1, text.length() - 1)) : TrigramIndex.literal(text);
+        } catch (PatternSyntaxException e) {
+            new Alert(Alert.AlertType.ERROR, e.getMessage()).show();
+            return;
+        }
+        final ListView<TrigramIndex.Match> results = new ListView<>();
+        final Stage stage = new Stage();
+        stage.setTitle("Find \"" + text + "\"");
+        final Scene scene = new Scene(results, 600, 400);
+        App.addDefaultStylesheets(scene);
+        stage.setScene(scene);
+        final Task<Integer> search = index.search(pattern, results.getItems()::add);
+        search.setOnSucceeded(event -> stage.setTitle(stage.getTitle() + " - " + search.getValue() + " matches"));
+        stage.setOnHidden(event -> search.cancel());
+        stage.show();
+    }
+
 //    @FXML
 //    protected void onHelloButtonClick() {
 //        welcomeText.setText("Welcome to our JavaFX Application!");
@@ -0,0 +1,388 @@
+package com.sdc.three.ide;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * The DependencyGraph keeps a content hash of every java source it is given along with the types the source declares
+ * and the names it references. A source depends on another when it references one of the types the other declares.
+ *
+ * Sources are scanned lexically (comments and literals are skipped, every other identifier is a possible reference), so
+ * the graph over-approximates the real dependencies: a file is never missing a dependent, but may have a few extra.
+ * Dotted names, as in imports and qualified type names, are also kept whole, so that they can be resolved to the sources
+ * of their packages.
+ *
+ * All methods are synchronized, so one graph may be shared between compilers running on different threads.
+ *
+ * @see IncrementalCompiler
+ */
+public class DependencyGraph {
+
+    private final HashMap<File, Node> nodes = new HashMap<>();
+
+    /**
+     * Rereads the file if it has never been read or its size or modification time changed since it was last read.
+     *
+     * @param file the java source to refresh
+     * @return true if the content of the file changed
+     * @throws IOException if the file could not be read
+     */
+    public synchronized boolean refresh(File file) throws IOException {
+        final Node node = nodes.get(key(file));
+        if (node != null && node.modified == file.lastModified() && node.size == file.length())
+            return false;
+        return update(file);
+    }
+
+    /**
+     * Reads the file and rescans it if its content hash differs from the last read.
+     *
+     * @param file the java source to update
+     * @return true if the file is new to the graph or its content changed
+     * @throws IOException if the file could not be read
+     */
+    public synchronized boolean update(File file) throws IOException {
+        final File key = key(file);
+        final long modified = file.lastModified();
+        final byte[] content = Files.readAllBytes(key.toPath());
+        final byte[] hash = digest().digest(content);
+        Node node = nodes.get(key);
+        final boolean changed = node == null || !Arrays.equals(node.hash, hash);
+        if (changed) {
+            node = new Node();
+            scan(new String(content, StandardCharsets.UTF_8), node);
+            nodes.put(key, node);
+        }
+        node.hash = hash;
+        node.modified = modified;
+        node.size = content.length;
+        return changed;
+    }
+
+    /**
+     * Removes the file from the graph
+     *
+     * @param file the file to remove
+     * @return the types the file declared, which its dependents can no longer reference
+     */
+    public synchronized Set<String> remove(File file) {
+        final Node node = nodes.remove(key(file));
+        return node == null ? Collections.emptySet() : node.declared;
+    }
+
+    public synchronized boolean contains(File file) {
+        return nodes.containsKey(key(file));
+    }
+
+    /**
+     * Returns the simple names of the types declared in the file, including nested types
+     *
+     * @param file a file in the graph
+     * @return the declared type names, empty if the file is not in the graph
+     */
+    public synchronized Set<String> getDeclaredTypes(File file) {
+        final Node node = nodes.get(key(file));
+        return node == null ? Collections.emptySet() : Collections.unmodifiableSet(node.declared);
+    }
+
+    /**
+     * Returns the identifiers the file references, other than the types it declares
+     *
+     * @param file a file in the graph
+     * @return the referenced identifiers, empty if the file is not in the graph
+     */
+    public synchronized Set<String> getReferences(File file) {
+        final Node node = nodes.get(key(file));
+        return node == null ? Collections.emptySet() : Collections.unmodifiableSet(node.referenced);
+    }
+
+    /**
+     * Returns the dotted names the file references, such as a.b.C in an import or a qualified type. An import on demand
+     * ends in .*
+     *
+     * @param file a file in the graph
+     * @return the dotted names, empty if the file is not in the graph
+     */
+    public synchronized Set<String> getQualifiedNames(File file) {
+        final Node node = nodes.get(key(file));
+        return node == null ? Collections.emptySet() : Collections.unmodifiableSet(node.qualified);
+    }
+
+    /**
+     * Returns the content hash of the file when it was last read
+     *
+     * @param file a file in the graph
+     * @return the hash, or null if the file is not in the graph
+     */
+    public synchronized byte[] getHash(File file) {
+        final Node node = nodes.get(key(file));
+        return node == null ? null : node.hash.clone();
+    }
+
+    /**
+     * Returns the files that reference any of the given type names
+     *
+     * @param types simple type names
+     * @return the files in the graph referencing the types
+     */
+    public synchronized Set<File> getReferencing(Collection<String> types) {
+        final Set<File> referencing = new HashSet<>();
+        if (types.isEmpty())
+            return referencing;
+        for (Map.Entry<File, Node> entry : nodes.entrySet()) {
+            for (String type : types) {
+                if (entry.getValue().referenced.contains(type)) {
+                    referencing.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return referencing;
+    }
+
+    /**
+     * Returns the files that reference any of the given type names, directly or through the types of other files that
+     * do. A change to a type can change what its indirect dependents compile to, as when a method they call through a
+     * subtype is removed from a supertype, so all of them are returned.
+     *
+     * @param types simple type names
+     * @return the files in the graph depending on the types, transitively
+     */
+    public synchronized Set<File> getReferencingTransitively(Collection<String> types) {
+        final Set<File> referencing = new HashSet<>();
+        Set<String> frontier = new HashSet<>(types);
+        final Set<String> seen = new HashSet<>(types);
+        while (!frontier.isEmpty()) {
+            final Set<String> next = new HashSet<>();
+            for (File file : getReferencing(frontier)) {
+                if (!referencing.add(file))
+                    continue;
+                for (String type : nodes.get(file).declared) {
+                    if (seen.add(type))
+                        next.add(type);
+                }
+            }
+            frontier = next;
+        }
+        return referencing;
+    }
+
+    /**
+     * Returns the files that depend on the given file, not including the file itself
+     *
+     * @param file a file in the graph
+     * @return the dependents of the file
+     */
+    public synchronized Set<File> getDependents(File file) {
+        final Set<File> dependents = getReferencing(getDeclaredTypes(file));
+        dependents.remove(key(file));
+        return dependents;
+    }
+
+    /**
+     * Groups the files into their connected components: files in different components do not depend on each other,
+     * except through files outside of the given list.
+     *
+     * @param files the files to group, each of them in the graph
+     * @return the components, each a list of the given files
+     */
+    public synchronized List<List<File>> components(List<File> files) {
+        final HashMap<String, Integer> declaring = new HashMap<>();
+        final int[] parents = new int[files.size()];
+        final Node[] fileNodes = new Node[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            parents[i] = i;
+            fileNodes[i] = nodes.get(key(files.get(i)));
+            if (fileNodes[i] == null)
+                continue;
+            for (String type : fileNodes[i].declared) {
+                Integer other = declaring.putIfAbsent(type, i);
+                if (other != null)
+                    union(parents, i, other);
+            }
+        }
+        for (int i = 0; i < files.size(); i++) {
+            if (fileNodes[i] == null)
+                continue;
+            for (String reference : fileNodes[i].referenced) {
+                Integer other = declaring.get(reference);
+                if (other != null)
+                    union(parents, i, other);
+            }
+        }
+        final LinkedHashMap<Integer, List<File>> components = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++)
+            components.computeIfAbsent(find(parents, i), root -> new ArrayList<>()).add(files.get(i));
+        return new ArrayList<>(components.values());
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parents, int a, int b) {
+        parents[find(parents, a)] = find(parents, b);
+    }
+
+    /**
+     * Returns the package the file declares
+     *
+     * @param file a file in the graph
+     * @return the package name, empty for the default package
+     */
+    public synchronized String getPackage(File file) {
+        final Node node = nodes.get(key(file));
+        return node == null ? "" : node.pkg;
+    }
+
+    /**
+     * Returns the source root of the file, found by removing the declared package from the file's directory. If the
+     * directory does not match the package, the directory is returned.
+     *
+     * @param file a file in the graph
+     * @return the directory that the file's package is relative to
+     */
+    public synchronized Path getSourceRoot(File file) {
+        final Path dir = key(file).toPath().getParent();
+        final String pkg = getPackage(file);
+        if (pkg.isEmpty())
+            return dir;
+        final Path pkgPath = Path.of("", pkg.split("\\."));
+        if (!dir.endsWith(pkgPath))
+            return dir;
+        Path root = dir;
+        for (int i = 0; i < pkgPath.getNameCount(); i++)
+            root = root.getParent();
+        return root;
+    }
+
+    static File key(File file) {
+        return file.toPath().toAbsolutePath().normalize().toFile();
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by every java platform", e);
+        }
+    }
+
+    /**
+     * Collects the package, the declared types and every referenced identifier of the source
+     */
+    private static void scan(String source, Node node) {
+        final int length = source.length();
+        String previous = null;
+        boolean readingPackage = false;
+        final StringBuilder pkg = new StringBuilder();
+        // the dotted name being read, and if a dot was just read after it
+        final StringBuilder dotted = new StringBuilder();
+        boolean dot = false;
+        int i = 0;
+        while (i < length) {
+            final char c = source.charAt(i);
+            if (c == '/' && i + 1 < length && source.charAt(i + 1) == '/') {
+                while (i < length && source.charAt(i) != '\n')
+                    i++;
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '*') {
+                final int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (c == '"' || c == '\'') {
+                i = skipLiteral(source, i);
+            } else if (Character.isJavaIdentifierStart(c)) {
+                final int start = i;
+                while (i < length && Character.isJavaIdentifierPart(source.charAt(i)))
+                    i++;
+                final String identifier = source.substring(start, i);
+                if (!dot)
+                    endDotted(dotted, node);
+                else
+                    dotted.append('.');
+                dotted.append(identifier);
+                dot = false;
+                if (readingPackage) {
+                    pkg.append(identifier);
+                } else if ("package".equals(identifier) && pkg.length() == 0) {
+                    readingPackage = true;
+                } else if (isTypeKeyword(previous)) {
+                    node.declared.add(identifier);
+                } else {
+                    node.referenced.add(identifier);
+                }
+                previous = identifier;
+            } else {
+                if (readingPackage) {
+                    if (c == '.')
+                        pkg.append(c);
+                    else if (c == ';')
+                        readingPackage = false;
+                }
+                if (c == '.' && dotted.length() > 0 && !dot) {
+                    dot = true;
+                } else if (c == '*' && dot) {
+                    dotted.append(".*");
+                    endDotted(dotted, node);
+                    dot = false;
+                } else if (!Character.isWhitespace(c)) {
+                    endDotted(dotted, node);
+                    dot = false;
+                }
+                if (!Character.isWhitespace(c))
+                    previous = null;
+                i++;
+            }
+        }
+        endDotted(dotted, node);
+        node.pkg = pkg.toString();
+        node.referenced.removeAll(node.declared);
+    }
+
+    private static void endDotted(StringBuilder dotted, Node node) {
+        if (dotted.indexOf(".") >= 0)
+            node.qualified.add(dotted.toString());
+        dotted.setLength(0);
+    }
+
+    private static boolean isTypeKeyword(String word) {
+        return "class".equals(word) || "interface".equals(word) || "enum".equals(word) || "record".equals(word);
+    }
+
+    private static int skipLiteral(String source, int i) {
+        final char quote = source.charAt(i);
+        if (quote == '"' && source.startsWith("\"\"\"", i)) {
+            final int end = source.indexOf("\"\"\"", i + 3);
+            return end < 0 ? source.length() : end + 3;
+        }
+        i++;
+        while (i < source.length()) {
+            final char c = source.charAt(i);
+            if (c == '\\')
+                i++;
+            else if (c == quote || c == '\n')
+                return i + 1;
+            i++;
+        }
+        return i;
+    }
+
+    private static class Node {
+        long modified;
+        long size;
+        byte[] hash;
+        String pkg = "";
+        final Set<String> declared = new HashSet<>();
+        final Set<String> referenced = new HashSet<>();
+        final Set<String> qualified = new HashSet<>();
+    }
+}
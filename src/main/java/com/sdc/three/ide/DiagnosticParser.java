@@ -0,0 +1,156 @@
+package com.sdc.three.ide;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The DiagnosticParser turns the text javac writes to stderr into {@link LineError}s, one line at a time. Only the
+ * diagnostic being read is held, so the memory used does not grow with the size of the output and every error is
+ * passed on as soon as its last line is read.
+ *
+ * A javac diagnostic is a header line, the offending source line, a caret line marking the column, and possibly
+ * indented detail lines:
+ * <pre>
+ * src/A.java:3: error: cannot find symbol
+ *         B b;
+ *         ^
+ *   symbol:   class B
+ *   location: class A
+ * </pre>
+ * Detail lines are appended to the message. Summary lines such as "1 error" and notes without a file are skipped.
+ */
+public class DiagnosticParser {
+
+    private enum State {
+        NONE, SOURCE, CARET, DETAIL
+    }
+
+    private final LineErrorListener listener;
+    private State state = State.NONE;
+    private File file;
+    private int line;
+    private int column;
+    private LineError.Severity severity;
+    private final StringBuilder message = new StringBuilder();
+
+    public DiagnosticParser(LineErrorListener listener) {
+        if (listener == null) throw new NullPointerException("Listener cannot be null");
+        this.listener = listener;
+    }
+
+    /**
+     * Parses every line of the reader, then finishes the parse
+     *
+     * @param reader the javac output
+     * @throws IOException if reading fails
+     */
+    public void parse(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null)
+            accept(line);
+        finish();
+    }
+
+    /**
+     * Parses the next line of output
+     * @param text a line of javac output without the line terminator
+     */
+    public void accept(String text) {
+        if (parseHeader(text))
+            return;
+        switch (state) {
+            case SOURCE:
+                state = State.CARET;
+                break;
+            case CARET:
+                final int caret = text.indexOf('^');
+                if (caret >= 0 && text.trim().equals("^")) {
+                    column = caret + 1;
+                    state = State.DETAIL;
+                } else {
+                    // no caret - the line is a detail
+                    state = State.DETAIL;
+                    acceptDetail(text);
+                }
+                break;
+            case DETAIL:
+                acceptDetail(text);
+                break;
+            case NONE:
+                break;
+        }
+    }
+
+    /**
+     * Appends an indented line to the message, or ends the diagnostic at any other line
+     */
+    private void acceptDetail(String text) {
+        if (!text.isEmpty() && Character.isWhitespace(text.charAt(0)))
+            message.append('\n').append(text.trim());
+        else
+            flush();
+    }
+
+    /**
+     * Passes on the diagnostic being read, if any. Call once the output ends.
+     */
+    public void finish() {
+        flush();
+    }
+
+    private boolean parseHeader(String text) {
+        int index = text.indexOf(".java:");
+        final int fileEnd;
+        if (index >= 0) {
+            fileEnd = index + ".java".length();
+            index = fileEnd + 1;
+        } else if (isSeverityAt(text, 0) != null) {
+            fileEnd = -1;
+            index = 0;
+        } else {
+            return false;
+        }
+        int lineNumber = 0;
+        if (fileEnd >= 0) {
+            final int digits = index;
+            while (index < text.length() && Character.isDigit(text.charAt(index)))
+                index++;
+            if (index == digits || index + 1 >= text.length() || text.charAt(index) != ':')
+                return false;
+            lineNumber = Integer.parseInt(text, digits, index, 10);
+            index += 2; // ": "
+        }
+        final LineError.Severity found = isSeverityAt(text, index);
+        if (found == null || found == LineError.Severity.NOTE && fileEnd < 0)
+            return false;
+
+        flush();
+        file = fileEnd < 0 ? null : new File(text.substring(0, fileEnd));
+        line = lineNumber;
+        column = 0;
+        severity = found;
+        message.append(text, index + found.name().length() + 2, text.length());
+        // diagnostics without a file have no source line
+        state = file == null ? State.DETAIL : State.SOURCE;
+        return true;
+    }
+
+    private static LineError.Severity isSeverityAt(String text, int index) {
+        for (LineError.Severity severity : LineError.Severity.values()) {
+            final String name = severity.name().toLowerCase();
+            if (text.startsWith(name, index) && text.startsWith(": ", index + name.length()))
+                return severity;
+        }
+        return null;
+    }
+
+    private void flush() {
+        if (severity != null)
+            listener.errorFound(new LineError(file, line, column, severity, message.toString()));
+        state = State.NONE;
+        severity = null;
+        file = null;
+        message.setLength(0);
+    }
+}
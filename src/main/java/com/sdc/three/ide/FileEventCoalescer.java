@@ -0,0 +1,91 @@
+package com.sdc.three.ide;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * Merges the events of a burst so that each path keeps a single event describing its net change:
+ * <ul>
+ *     <li>repeated events collapse into one</li>
+ *     <li>ADDED then REMOVED cancels out</li>
+ *     <li>ADDED then MODIFIED stays ADDED, as new files are considered saved</li>
+ *     <li>REMOVED then ADDED becomes MODIFIED, the file was replaced</li>
+ *     <li>MODIFIED then REMOVED becomes REMOVED</li>
+ * </ul>
+ * A directory that is removed then added again is not a modification: its old content is gone and its new content has
+ * to be found. It stays ADDED, and is also kept as replaced, see {@link #drainReplaced()}, so that its removal can be
+ * delivered before it.
+ *
+ * This is not thread safe, each thread coalescing events should have its own.
+ */
+class FileEventCoalescer {
+
+    private final LinkedHashMap<Path, FileEvent> events = new LinkedHashMap<>();
+    private final LinkedHashSet<Path> replaced = new LinkedHashSet<>();
+
+    void add(Path path, FileEvent event) {
+        final FileEvent previous = events.get(path);
+        FileEvent merged = previous == null ? event : merge(previous, event);
+        if (previous == FileEvent.REMOVED && event == FileEvent.ADDED
+                && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            replaced.add(path);
+            merged = FileEvent.ADDED;
+        }
+        if (merged == null)
+            events.remove(path);
+        else if (previous == null)
+            events.put(path, merged);
+        else
+            events.replace(path, merged); // keeps the order the path first changed in
+    }
+
+    boolean isEmpty() {
+        return events.isEmpty() && replaced.isEmpty();
+    }
+
+    int size() {
+        return events.size();
+    }
+
+    /**
+     * Returns the coalesced events and starts a new burst
+     * @return the events in the order their paths first changed
+     */
+    LinkedHashMap<Path, FileEvent> drain() {
+        final LinkedHashMap<Path, FileEvent> drained = new LinkedHashMap<>(events);
+        events.clear();
+        return drained;
+    }
+
+    /**
+     * Returns the directories removed then added again in this burst, as REMOVED events to deliver before
+     * {@link #drain()}. A replaced directory removed once more is only in these.
+     * @return the removals of the replaced directories, in the order they were replaced
+     */
+    LinkedHashMap<Path, FileEvent> drainReplaced() {
+        final LinkedHashMap<Path, FileEvent> drained = new LinkedHashMap<>();
+        for (Path path : replaced)
+            drained.put(path, FileEvent.REMOVED);
+        replaced.clear();
+        return drained;
+    }
+
+    /**
+     * Merges two consecutive events of one path
+     * @return the net event, or null if the events cancel out
+     */
+    static FileEvent merge(FileEvent previous, FileEvent next) {
+        switch (previous) {
+            case ADDED:
+                return next == FileEvent.REMOVED ? null : FileEvent.ADDED;
+            case REMOVED:
+                return next == FileEvent.REMOVED ? FileEvent.REMOVED : FileEvent.MODIFIED;
+            case MODIFIED:
+            default:
+                return next == FileEvent.REMOVED ? FileEvent.REMOVED : FileEvent.MODIFIED;
+        }
+    }
+}
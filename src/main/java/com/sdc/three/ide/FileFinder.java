@@ -0,0 +1,592 @@
+package com.sdc.three.ide;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Finds files of a {@link Workspace} by a fuzzy match of their path, for going to a file by typing part of its name.
+ *
+ * The paths of the files, relative to the workspace and with / between names, are kept end to end in one char array,
+ * with the offset of each in an int array, so that half a million paths take a few flat arrays rather than a Path
+ * and a String each. A query matches a path if its characters appear in the path in order, ignoring case. Each path
+ * also has a mask of the characters in it, so most paths are skipped without reading them.
+ *
+ * Matches are ranked by the fewest gaps between the matched characters, with a bonus for characters at the start of a
+ * name or a camel case word, and for a match inside the file name itself; shorter paths win ties. The paths are
+ * searched in chunks of {@value #CHUNK} on a fork join pool, each keeping its best matches in a heap of primitive
+ * keys, and only the best matches overall become Strings. While a query is typed, each keystroke usually only adds to
+ * the last query, and then only the paths that matched the last query are searched again.
+ *
+ * The finder follows the events of the workspace. Removed paths are marked dead and are dropped once they outnumber
+ * the live ones.
+ */
+public class FileFinder implements BatchFileChangeListener {
+
+    static final int CHUNK = 16_384;
+    private static final int MATCH = 16;
+    private static final int CONSECUTIVE = 6;
+    private static final int NAME_START = 12;
+    private static final int WORD_START = 8;
+    private static final int FILE_NAME = 20;
+    private static final int GAP = 1;
+    private static final int GAP_START = 3;
+    private static final int MAX_LENGTH_PENALTY = 1_023;
+    static final int MAX_NARROWED = 1 << 18;
+    private static final char[] LOWER = new char[Character.MAX_VALUE + 1];
+    private static final ForkJoinPool findPool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++)
+            LOWER[c] = Character.toLowerCase((char) c);
+    }
+
+    private final Path root;
+    private final Workspace workspace;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // all of the fields below are guarded by the lock
+    private char[] chars = new char[1 << 16];
+    // path i is chars[starts[i]] to chars[starts[i + 1]]
+    private int[] starts = new int[1_025];
+    private long[] masks = new long[1_024];
+    private final BitSet dead = new BitSet();
+    private int count;
+    private int deadCount;
+    // counts the changes, so that the matches of an earlier query are only reused while no path changed
+    private int version;
+    // open addressing table of path indexes by the hash of their text, -1 if empty
+    private int[] slots = emptySlots(2_048);
+    private volatile Narrowed narrowed;
+
+    /**
+     * Creates a FileFinder of every file in the workspace, which follows the workspace until {@link #detach()} is
+     * called
+     *
+     * @param workspace the workspace to find files in
+     * @throws IOException if the workspace could not be listed
+     */
+    public FileFinder(Workspace workspace) throws IOException {
+        this.root = workspace.getDirectory().toPath().normalize();
+        this.workspace = workspace;
+        workspace.getListeners().add(this);
+        try {
+            addAll(root);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Creates a FileFinder of the given paths, which does not follow any workspace
+     *
+     * @param root the directory the paths are relative to
+     * @param paths the relative paths of the files, with / between names
+     */
+    FileFinder(Path root, Iterable<String> paths) {
+        this.root = root;
+        this.workspace = null;
+        lock.writeLock().lock();
+        try {
+            for (String path : paths)
+                add(path);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops following the changes of the workspace
+     */
+    public void detach() {
+        if (workspace != null)
+            workspace.getListeners().remove(this);
+    }
+
+    /**
+     * @return the number of files that can be found
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count - deadCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the paths that best match a query, best first
+     *
+     * @param query characters that must appear in order in a path, ignoring case. An empty query finds nothing, and
+     *              the next query searches every path again.
+     * @param limit the most paths to return
+     * @return the relative paths of the best matches, with / between names
+     */
+    public List<String> find(String query, int limit) {
+        if (query.isEmpty() || limit <= 0) {
+            narrowed = null;
+            return Collections.emptyList();
+        }
+        final char[] lowerQuery = new char[query.length()];
+        long queryMask = 0;
+        for (int i = 0; i < lowerQuery.length; i++) {
+            lowerQuery[i] = LOWER[query.charAt(i) == File.separatorChar ? '/' : query.charAt(i)];
+            queryMask |= bitOf(lowerQuery[i]);
+        }
+        lock.readLock().lock();
+        try {
+            final Narrowed last = narrowed;
+            final int[] subset = last != null && last.version == version && isSubsequence(last.query, lowerQuery)
+                    ? last.matched : null;
+            final int size = subset == null ? count : subset.length;
+            final Search search = new Search(lowerQuery, queryMask, limit, subset, 0, size);
+            final TopK best = size <= CHUNK ? search.compute() : findPool.invoke(search);
+            narrowed = best.matched == null ? null
+                    : new Narrowed(lowerQuery, version, Arrays.copyOf(best.matched, best.matchedCount));
+            final long[] keys = best.sorted();
+            final List<String> found = new ArrayList<>(keys.length);
+            for (long key : keys) {
+                final int index = Integer.MAX_VALUE - (int) key;
+                found.add(new String(chars, starts[index], starts[index + 1] - starts[index]));
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the path of a file found
+     * @param found a relative path returned by {@link #find(String, int)}
+     * @return the absolute path of the file
+     */
+    public Path resolve(String found) {
+        return root.resolve(found);
+    }
+
+    @Override
+    public void filesystemChanged(Path path, FileEvent event) {
+        filesystemChanged(Collections.singletonMap(path, event));
+    }
+
+    @Override
+    public void filesystemChanged(Map<Path, FileEvent> changes) {
+        for (Map.Entry<Path, FileEvent> change : changes.entrySet()) {
+            final Path path = change.getKey().normalize();
+            if (!path.startsWith(root) || path.equals(root))
+                continue;
+            try {
+                if (change.getValue() == FileEvent.REMOVED)
+                    removeAll(relative(path));
+                else
+                    addAll(path);
+            } catch (IOException | UncheckedIOException e) {
+                IdeMetrics.error("Failed to list " + path + " for the file finder: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Adds a file, or every file below a directory, that is not already known
+     */
+    private void addAll(Path path) throws IOException {
+        final List<String> found = new ArrayList<>();
+        if (Files.isRegularFile(path)) {
+            found.add(relative(path));
+        } else if (Files.isDirectory(path)) {
+            try (Stream<Path> walk = Files.walk(path)) {
+                walk.filter(Files::isRegularFile).forEach(file -> found.add(relative(file)));
+            }
+        }
+        if (found.isEmpty())
+            return;
+        lock.writeLock().lock();
+        try {
+            for (String file : found) {
+                if (indexOf(file) < 0)
+                    add(file);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a file, or every file below a directory
+     */
+    private void removeAll(String path) {
+        lock.writeLock().lock();
+        try {
+            final int index = indexOf(path);
+            if (index >= 0) {
+                kill(index);
+            } else {
+                // a directory, whose files all go with it
+                final int length = path.length();
+                for (int i = dead.nextClearBit(0); i < count; i = dead.nextClearBit(i + 1)) {
+                    if (starts[i + 1] - starts[i] > length && chars[starts[i] + length] == '/'
+                            && regionEquals(i, path))
+                        kill(i);
+                }
+            }
+            if (deadCount > CHUNK && deadCount > count - deadCount)
+                compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private String relative(Path path) {
+        final String relative = root.relativize(path).toString();
+        return File.separatorChar == '/' ? relative : relative.replace(File.separatorChar, '/');
+    }
+
+    private void add(String path) {
+        final int end = starts[count] + path.length();
+        if (end > chars.length)
+            chars = Arrays.copyOf(chars, Math.max(end, chars.length * 2));
+        if (count == masks.length) {
+            masks = Arrays.copyOf(masks, masks.length * 2);
+            starts = Arrays.copyOf(starts, masks.length + 1);
+        }
+        final int start = starts[count];
+        long mask = 0;
+        for (int i = 0; i < path.length(); i++) {
+            chars[start + i] = path.charAt(i);
+            mask |= bitOf(LOWER[path.charAt(i)]);
+        }
+        masks[count] = mask;
+        starts[++count] = end;
+        version++;
+        if (count * 2 > slots.length)
+            rehash();
+        else
+            insert(count - 1);
+    }
+
+    private void kill(int index) {
+        if (!dead.get(index)) {
+            dead.set(index);
+            deadCount++;
+            version++;
+        }
+    }
+
+    /**
+     * Drops the dead paths, keeping the order of the live ones
+     */
+    private void compact() {
+        int kept = 0;
+        for (int i = dead.nextClearBit(0); i < count; i = dead.nextClearBit(i + 1)) {
+            final int length = starts[i + 1] - starts[i];
+            System.arraycopy(chars, starts[i], chars, starts[kept], length);
+            masks[kept] = masks[i];
+            starts[kept + 1] = starts[kept] + length;
+            kept++;
+        }
+        count = kept;
+        deadCount = 0;
+        dead.clear();
+        version++;
+        rehash();
+    }
+
+    private void rehash() {
+        int size = 2_048;
+        while (size < count * 2)
+            size *= 2;
+        slots = emptySlots(size);
+        for (int i = 0; i < count; i++) {
+            if (!dead.get(i))
+                insert(i);
+        }
+    }
+
+    private void insert(int index) {
+        final int mask = slots.length - 1;
+        int slot = hash(chars, starts[index], starts[index + 1]) & mask;
+        while (slots[slot] >= 0)
+            slot = (slot + 1) & mask;
+        slots[slot] = index;
+    }
+
+    /**
+     * @return the index of the live path with the given text, or -1 if there is none
+     */
+    private int indexOf(String path) {
+        final int mask = slots.length - 1;
+        int hash = 0;
+        for (int i = 0; i < path.length(); i++)
+            hash = 31 * hash + path.charAt(i);
+        for (int slot = spread(hash) & mask; slots[slot] >= 0; slot = (slot + 1) & mask) {
+            final int index = slots[slot];
+            if (!dead.get(index) && starts[index + 1] - starts[index] == path.length() && regionEquals(index, path))
+                return index;
+        }
+        return -1;
+    }
+
+    /**
+     * @return if the path at an index starts with the given text
+     */
+    private boolean regionEquals(int index, String path) {
+        final int start = starts[index];
+        for (int i = 0; i < path.length(); i++) {
+            if (chars[start + i] != path.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static int hash(char[] chars, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++)
+            hash = 31 * hash + chars[i];
+        return spread(hash);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int[] emptySlots(int size) {
+        final int[] slots = new int[size];
+        Arrays.fill(slots, -1);
+        return slots;
+    }
+
+    /**
+     * Returns the bit of a lower case character in the mask of a path. Letters and digits have a bit each, and the
+     * other characters share the rest.
+     */
+    private static long bitOf(char c) {
+        if (c >= 'a' && c <= 'z')
+            return 1L << (c - 'a');
+        if (c >= '0' && c <= '9')
+            return 1L << (26 + c - '0');
+        return 1L << (36 + c % 28);
+    }
+
+    /**
+     * @return if the characters of one query appear in order in another, so that every match of the other matches it
+     */
+    private static boolean isSubsequence(char[] of, char[] query) {
+        int i = 0;
+        for (int j = 0; j < query.length && i < of.length; j++) {
+            if (query[j] == of[i])
+                i++;
+        }
+        return i == of.length;
+    }
+
+    /**
+     * Scores a path against a query, or returns {@link Integer#MIN_VALUE} if it does not match. The matched characters
+     * are the last that still fit the whole query, so that they fall in the file name when they can.
+     */
+    static int score(char[] chars, int start, int end, char[] query) {
+        int q = query.length - 1;
+        int first = -1;
+        int last = -1;
+        for (int p = end - 1; p >= start; p--) {
+            if (LOWER[chars[p]] == query[q]) {
+                if (last < 0)
+                    last = p;
+                if (--q < 0) {
+                    first = p;
+                    break;
+                }
+            }
+        }
+        if (first < 0)
+            return Integer.MIN_VALUE;
+        // from the first character, match forwards again so the characters are as close together as they can be
+        q = 0;
+        int score = 0;
+        boolean previous = false;
+        for (int p = first; p <= last && q < query.length; p++) {
+            if (LOWER[chars[p]] == query[q]) {
+                score += MATCH;
+                if (previous)
+                    score += CONSECUTIVE;
+                if (p == start || chars[p - 1] == '/')
+                    score += NAME_START;
+                else if (!Character.isLetterOrDigit(chars[p - 1])
+                        || Character.isUpperCase(chars[p]) && Character.isLowerCase(chars[p - 1]))
+                    score += WORD_START;
+                previous = true;
+                q++;
+            } else {
+                score -= previous ? GAP_START : GAP;
+                previous = false;
+            }
+        }
+        boolean inName = true;
+        for (int p = first; p < end && inName; p++)
+            inName = chars[p] != '/';
+        if (inName)
+            score += FILE_NAME;
+        return score;
+    }
+
+    /**
+     * Finds the best matches in a range of paths, or of the given subset of paths, splitting it in half until it is no
+     * more than one chunk
+     */
+    @SuppressWarnings("serial") // never serialized, it only runs on the find pool under the read lock of its finder
+    private class Search extends RecursiveTask<TopK> {
+
+        private final char[] query;
+        private final long queryMask;
+        private final int limit;
+        private final int[] subset;
+        private final int from;
+        private final int to;
+
+        Search(char[] query, long queryMask, int limit, int[] subset, int from, int to) {
+            this.query = query;
+            this.queryMask = queryMask;
+            this.limit = limit;
+            this.subset = subset;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopK compute() {
+            if (to - from > CHUNK) {
+                final int middle = (from + to) >>> 1;
+                final Search right = new Search(query, queryMask, limit, subset, middle, to);
+                right.fork();
+                final TopK best = new Search(query, queryMask, limit, subset, from, middle).compute();
+                best.addAll(right.join());
+                return best;
+            }
+            final TopK best = new TopK(limit);
+            for (int at = from; at < to; at++) {
+                final int i = subset == null ? at : subset[at];
+                if ((masks[i] & queryMask) != queryMask || dead.get(i))
+                    continue;
+                final int score = score(chars, starts[i], starts[i + 1], query);
+                if (score == Integer.MIN_VALUE)
+                    continue;
+                final int rank = score * (MAX_LENGTH_PENALTY + 1) - Math.min(MAX_LENGTH_PENALTY, starts[i + 1] - starts[i]);
+                best.add((long) rank << 32 | (Integer.MAX_VALUE - i));
+                best.matched(i);
+            }
+            return best;
+        }
+    }
+
+    /**
+     * The matches of the last query, which are all a later query has to search while the paths have not changed and
+     * the characters of the last query appear in order in it
+     */
+    private static final class Narrowed {
+
+        private final char[] query;
+        private final int version;
+        private final int[] matched;
+
+        Narrowed(char[] query, int version, int[] matched) {
+            this.query = query;
+            this.version = version;
+            this.matched = matched;
+        }
+    }
+
+    /**
+     * The greatest keys added, in a min heap. A key holds the rank of a path in its high half and the index of the
+     * path, counted down from {@link Integer#MAX_VALUE} so earlier paths win ties, in its low half.
+     */
+    private static final class TopK {
+
+        private final long[] heap;
+        private int size;
+        // the index of every match in order, until there are more than MAX_NARROWED and they are no longer kept
+        private int[] matched = new int[16];
+        private int matchedCount;
+
+        TopK(int limit) {
+            heap = new long[limit];
+        }
+
+        void add(long key) {
+            if (size < heap.length) {
+                int i = size++;
+                while (i > 0 && heap[(i - 1) >>> 1] > key) {
+                    heap[i] = heap[(i - 1) >>> 1];
+                    i = (i - 1) >>> 1;
+                }
+                heap[i] = key;
+            } else if (key > heap[0]) {
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size)
+                        break;
+                    if (child + 1 < size && heap[child + 1] < heap[child])
+                        child++;
+                    if (heap[child] >= key)
+                        break;
+                    heap[i] = heap[child];
+                    i = child;
+                }
+                heap[i] = key;
+            }
+        }
+
+        void matched(int index) {
+            if (matched == null)
+                return;
+            if (matchedCount == MAX_NARROWED) {
+                matched = null;
+                return;
+            }
+            if (matchedCount == matched.length)
+                matched = Arrays.copyOf(matched, Math.min(MAX_NARROWED, matched.length * 2));
+            matched[matchedCount++] = index;
+        }
+
+        /**
+         * Adds the keys and the matches of a later range
+         */
+        void addAll(TopK later) {
+            for (int i = 0; i < later.size; i++)
+                add(later.heap[i]);
+            if (matched == null || later.matched == null || matchedCount + later.matchedCount > MAX_NARROWED) {
+                matched = null;
+                return;
+            }
+            if (matchedCount + later.matchedCount > matched.length)
+                matched = Arrays.copyOf(matched, matchedCount + later.matchedCount);
+            System.arraycopy(later.matched, 0, matched, matchedCount, later.matchedCount);
+            matchedCount += later.matchedCount;
+        }
+
+        /**
+         * @return the keys, greatest first
+         */
+        long[] sorted() {
+            final long[] sorted = Arrays.copyOf(heap, size);
+            Arrays.sort(sorted);
+            for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+                final long swap = sorted[i];
+                sorted[i] = sorted[j];
+                sorted[j] = swap;
+            }
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.sdc.three.ide;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Decodes a file into pages of text, so that the start of a large file can be shown while the rest is still read.
+ *
+ * The file is memory mapped a window at a time rather than read into the heap, and decoded straight from the mapping.
+ * A char split across two windows is left undecoded at the end of the first, and the next window is mapped from it.
+ * Malformed input is replaced rather than failing the load.
+ *
+ * @see Workspace#load(Path, TextEditor)
+ */
+class FileLoader {
+
+    static final int DEFAULT_PAGE_CHARS = 64 * 1024;
+    private static final long DEFAULT_WINDOW_BYTES = 64L << 20;
+
+    private final Path path;
+    private final Charset charset;
+    private final int pageChars;
+    private final long windowBytes;
+
+    /**
+     * Receives the pages of a file in order
+     */
+    interface PageConsumer {
+        /**
+         * @param text the text of the page
+         * @param first if this is the first page, which replaces any text from before; an empty file has one empty page
+         * @throws InterruptedException if interrupted waiting to take the page
+         */
+        void page(String text, boolean first) throws InterruptedException;
+    }
+
+    interface Progress {
+        void update(long loaded, long total);
+    }
+
+    FileLoader(Path path, Charset charset) {
+        this(path, charset, DEFAULT_PAGE_CHARS, DEFAULT_WINDOW_BYTES);
+    }
+
+    FileLoader(Path path, Charset charset, int pageChars, long windowBytes) {
+        this.path = path;
+        this.charset = charset;
+        this.pageChars = pageChars;
+        this.windowBytes = windowBytes;
+    }
+
+    /**
+     * Decodes the file
+     *
+     * @param pages receives each page as soon as it is full
+     * @param progress told the number of bytes decoded after each window
+     * @param cancelled checked between pages, stopping the load once true
+     * @throws IOException if the file cannot be read
+     * @throws InterruptedException if interrupted while a page is waiting to be taken
+     */
+    void load(PageConsumer pages, Progress progress, BooleanSupplier cancelled) throws IOException, InterruptedException {
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final CharBuffer page = CharBuffer.allocate(pageChars);
+        boolean first = true;
+        final long size;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            long position = 0;
+            while (position < size) {
+                final long length = Math.min(windowBytes, size - position);
+                final boolean last = position + length == size;
+                final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                CoderResult result = decoder.decode(window, page, last);
+                while (result.isOverflow()) {
+                    if (cancelled.getAsBoolean())
+                        return;
+                    pages.page(drain(page), first);
+                    first = false;
+                    result = decoder.decode(window, page, last);
+                }
+                if (window.position() == 0 && !last)
+                    throw new IOException("Window too small to decode " + path);
+                position += window.position();
+                progress.update(position, size);
+            }
+        }
+        while (size > 0 && decoder.flush(page).isOverflow()) {
+            pages.page(drain(page), first);
+            first = false;
+        }
+        if (page.position() > 0 || first)
+            pages.page(drain(page), first);
+    }
+
+    private static String drain(CharBuffer page) {
+        page.flip();
+        final String text = page.toString();
+        page.clear();
+        return text;
+    }
+}
@@ -1,9 +1,11 @@
 package com.sdc.three.ide;
 
-import javafx.beans.property.ReadOnlyListWrapper;
+import javafx.collections.ObservableSet;
+import javafx.concurrent.Task;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.function.Function;
 
 public interface Filesystem {
 
@@ -15,5 +17,25 @@ public interface Filesystem {
      */
     void save(Path path, String string) throws IOException;
 
-    ReadOnlyListWrapper<Path> getPathsToSave();
+    /**
+     * Returns the paths modified since they were last saved
+     * @return a read only view of the paths, each one held once
+     */
+    ObservableSet<Path> getPathsToSave();
+
+    /**
+     * Saves every path waiting to be saved without blocking the caller
+     * @param contents gives the text to save to a path, or null to leave the path unsaved
+     * @return the running save, which fails if any file could not be saved
+     */
+    Task<Void> saveAll(Function<Path, ? extends CharSequence> contents);
+
+    /**
+     * Loads a file into an editor without blocking the caller. The file is decoded in the background and its text is
+     * given to the editor a page at a time on the FX thread, the first page replacing whatever text the editor had.
+     * @param path The path to the file to load
+     * @param editor The editor to show the file in
+     * @return the running load, whose progress is the share of the file decoded, and which may be cancelled
+     */
+    Task<Void> load(Path path, TextEditor editor);
 }
\ No newline at end of file
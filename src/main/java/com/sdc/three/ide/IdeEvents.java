@@ -0,0 +1,87 @@
+package com.sdc.three.ide;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * The JDK Flight Recorder events of the IDE core. They cost next to nothing when no recording is running, and show
+ * up in JDK Mission Control under the "SDC IDE" category of a recording such as one started with
+ * {@code -XX:StartFlightRecording}.
+ *
+ * @see IdeMetrics
+ */
+final class IdeEvents {
+
+    private static final String CATEGORY = "SDC IDE";
+
+    private IdeEvents() {
+    }
+
+    @Name("com.sdc.three.ide.WatchBurst")
+    @Label("Watch Burst")
+    @Description("A burst of filesystem events applied to the workspace tree")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class WatchBurst extends Event {
+        @Label("Events")
+        int events;
+    }
+
+    @Name("com.sdc.three.ide.Save")
+    @Label("Save")
+    @Description("A file written atomically by the workspace")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class Save extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.sdc.three.ide.Compile")
+    @Label("Compile")
+    @Description("A build of a list of files")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class Compile extends Event {
+        @Label("Files")
+        int files;
+
+        @Label("Files With Errors")
+        int failed;
+
+        @Label("Time Per File")
+        @Timespan(Timespan.NANOSECONDS)
+        long perFile;
+
+        @Label("Restored From Cache")
+        boolean cached;
+    }
+
+    @Name("com.sdc.three.ide.LockWait")
+    @Label("Directory Lock Wait")
+    @Description("A wait for the lock of a workspace directory held by another thread")
+    @Category(CATEGORY)
+    @Threshold("1 ms")
+    static class LockWait extends Event {
+    }
+
+    @Name("com.sdc.three.ide.Error")
+    @Label("Error")
+    @Description("A failure the IDE reported and carried on from")
+    @Category(CATEGORY)
+    static class Error extends Event {
+        @Label("Message")
+        String message;
+    }
+}
@@ -0,0 +1,183 @@
+package com.sdc.three.ide;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime metrics of the IDE core, registered with the platform MBean server as {@value #OBJECT_NAME} so that a slow
+ * session can be looked at with JConsole or any other JMX client, without a debugger.
+ *
+ * The components record what they do here as they do it, using adders that do not contend between threads. Gauges,
+ * like the depth of the watch queues, are read from the open {@link Workspace} when they are asked for. The same
+ * work is also recorded as {@link IdeEvents} for the JDK Flight Recorder.
+ *
+ * Failures the IDE carries on from are reported through {@link #error(String)}, which still prints them to
+ * System.err but also counts them and records them for the Flight Recorder.
+ */
+public class IdeMetrics implements IdeMetricsMBean {
+
+    public static final String OBJECT_NAME = "com.sdc.three.ide:type=IdeMetrics";
+    private static final IdeMetrics instance = register(new IdeMetrics());
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private volatile Workspace workspace;
+    private final LongAdder watchEvents = new LongAdder();
+    private final LongAdder saves = new LongAdder();
+    private final LongAdder saveNanos = new LongAdder();
+    private final LongAccumulator maxSaveNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder compiledFiles = new LongAdder();
+    private final LongAdder compileNanos = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    // the last sample of the watch event count, for the rate
+    private long sampleNanos = System.nanoTime();
+    private long sampleEvents;
+    private double eventsPerSecond;
+
+    IdeMetrics() {
+    }
+
+    public static IdeMetrics get() {
+        return instance;
+    }
+
+    /**
+     * Prints a failure to System.err, counting it and recording it for the Flight Recorder
+     * @param message what failed
+     */
+    public static void error(String message) {
+        System.err.println(message);
+        instance.errors.increment();
+        final IdeEvents.Error event = new IdeEvents.Error();
+        if (event.shouldCommit()) {
+            event.message = message;
+            event.commit();
+        }
+    }
+
+    /**
+     * Sets the workspace the gauges are read from
+     * @param workspace the workspace opened last
+     */
+    void setWorkspace(Workspace workspace) {
+        this.workspace = workspace;
+    }
+
+    void watchBurst(int events) {
+        watchEvents.add(events);
+    }
+
+    void saved(long nanos) {
+        saves.increment();
+        saveNanos.add(nanos);
+        maxSaveNanos.accumulate(nanos);
+    }
+
+    void compiled(int files, long nanos) {
+        compiledFiles.add(files);
+        compileNanos.add(nanos);
+    }
+
+    @Override
+    public long getWatchEventCount() {
+        return watchEvents.sum();
+    }
+
+    @Override
+    public synchronized double getWatchEventsPerSecond() {
+        final long now = System.nanoTime();
+        if (now - sampleNanos >= TimeUnit.SECONDS.toNanos(1)) {
+            final long events = watchEvents.sum();
+            eventsPerSecond = (events - sampleEvents) * (double) TimeUnit.SECONDS.toNanos(1) / (now - sampleNanos);
+            sampleNanos = now;
+            sampleEvents = events;
+        }
+        return eventsPerSecond;
+    }
+
+    @Override
+    public int getDispatchQueueDepth() {
+        final Workspace workspace = this.workspace;
+        return workspace == null ? 0 : workspace.getWatchPool().getQueueDepth();
+    }
+
+    @Override
+    public double getAverageDispatchLatencyMillis() {
+        final Workspace workspace = this.workspace;
+        return workspace == null ? 0 : workspace.getWatchPool().getAverageDispatchLatency();
+    }
+
+    @Override
+    public double getMaxDispatchLatencyMillis() {
+        final Workspace workspace = this.workspace;
+        return workspace == null ? 0 : workspace.getWatchPool().getMaxDispatchLatency();
+    }
+
+    @Override
+    public int getTreeSize() {
+        final Workspace workspace = this.workspace;
+        return workspace == null ? 0 : workspace.getTreeSize();
+    }
+
+    @Override
+    public long getLockContentions() {
+        final Workspace workspace = this.workspace;
+        return workspace == null ? 0 : workspace.getLockContentions();
+    }
+
+    @Override
+    public long getLockWaitMillis() {
+        final Workspace workspace = this.workspace;
+        return workspace == null ? 0 : workspace.getLockWaitMillis();
+    }
+
+    @Override
+    public double getAverageLockHoldMicros() {
+        final Workspace workspace = this.workspace;
+        return workspace == null ? 0 : workspace.getAverageLockHoldMicros();
+    }
+
+    @Override
+    public long getSaveCount() {
+        return saves.sum();
+    }
+
+    @Override
+    public double getAverageSaveMillis() {
+        final long count = saves.sum();
+        return count == 0 ? 0 : saveNanos.sum() / (double) count / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxSaveMillis() {
+        return maxSaveNanos.get() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getCompiledFileCount() {
+        return compiledFiles.sum();
+    }
+
+    @Override
+    public double getAverageCompileMillisPerFile() {
+        final long files = compiledFiles.sum();
+        return files == 0 ? 0 : compileNanos.sum() / (double) files / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    private static IdeMetrics register(IdeMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            System.err.println("Failed to register the IDE metrics: " + e.getMessage());
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,47 @@
+package com.sdc.three.ide;
+
+/**
+ * The management interface of {@link IdeMetrics}, giving the attributes shown over JMX.
+ */
+public interface IdeMetricsMBean {
+
+    long getWatchEventCount();
+
+    /**
+     * @return the rate of filesystem events applied to the workspace, over the time since it was last read (at least
+     *         a second)
+     */
+    double getWatchEventsPerSecond();
+
+    int getDispatchQueueDepth();
+
+    double getAverageDispatchLatencyMillis();
+
+    double getMaxDispatchLatencyMillis();
+
+    /**
+     * @return the number of items in the tree of the workspace
+     */
+    int getTreeSize();
+
+    long getLockContentions();
+
+    long getLockWaitMillis();
+
+    double getAverageLockHoldMicros();
+
+    long getSaveCount();
+
+    double getAverageSaveMillis();
+
+    double getMaxSaveMillis();
+
+    long getCompiledFileCount();
+
+    double getAverageCompileMillisPerFile();
+
+    /**
+     * @return the number of failures reported through {@link IdeMetrics#error(String)}
+     */
+    long getErrorCount();
+}
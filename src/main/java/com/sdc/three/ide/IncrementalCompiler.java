@@ -0,0 +1,170 @@
+package com.sdc.three.ide;
+
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The IncrementalCompiler wraps another Compiler so that each call to {@link #compile(List)} only recompiles the files
+ * whose content changed since the last build, and the files that depend on them, directly or transitively. Errors of
+ * the files that are not rebuilt are kept from the build that last compiled them.
+ *
+ * Changes are found through the content hashes kept by a {@link DependencyGraph}. When the compiler is fed
+ * {@link FileEvent}s by a Workspace, only the files named by events are rehashed; without a feed every file is
+ * checked against its size and modification time on each build.
+ *
+ * Results are only recorded once they are collected through {@link #getError()}. Files of a build that was never
+ * collected are rebuilt by the next build.
+ *
+ * @see DependencyGraph
+ */
+public class IncrementalCompiler implements Compiler, FileChangeListener {
+
+    private final Compiler compiler;
+    private final DependencyGraph graph;
+    private final boolean hasFeed;
+    private final Set<File> changed = ConcurrentHashMap.newKeySet();
+    private final Set<String> removedTypes = ConcurrentHashMap.newKeySet();
+    private final HashMap<File, CompileError> errors = new HashMap<>();
+    private final Set<File> uncollected = new HashSet<>();
+    private List<File> files = Collections.emptyList();
+    private Set<File> building = Collections.emptySet();
+
+    /**
+     * Creates an IncrementalCompiler that checks every file for changes on each build
+     *
+     * @param compiler the compiler to run on the files that need rebuilding
+     * @param graph the graph holding the content hashes and dependencies
+     */
+    public IncrementalCompiler(Compiler compiler, DependencyGraph graph) {
+        this(compiler, graph, false);
+    }
+
+    /**
+     * Creates an IncrementalCompiler that takes its changes from the events of the workspace
+     *
+     * @param compiler the compiler to run on the files that need rebuilding
+     * @param graph the graph holding the content hashes and dependencies
+     * @param workspace the workspace containing the files that will be compiled
+     */
+    public IncrementalCompiler(Compiler compiler, DependencyGraph graph, Workspace workspace) {
+        this(compiler, graph, true);
+        workspace.getListeners().add(this);
+    }
+
+    private IncrementalCompiler(Compiler compiler, DependencyGraph graph, boolean hasFeed) {
+        if (compiler == null || graph == null)
+            throw new NullPointerException("Compiler and graph cannot be null");
+        this.compiler = compiler;
+        this.graph = graph;
+        this.hasFeed = hasFeed;
+    }
+
+    @Override
+    public synchronized void compile(List<File> files) {
+        if (files == null) throw new NullPointerException("Files cannot be a null pointer");
+        final LinkedHashMap<File, File> byKey = new LinkedHashMap<>(files.size() * 2 + 1);
+        for (File file : files) {
+            if (file == null) throw new NullPointerException("Cannot compile null file");
+            byKey.put(DependencyGraph.key(file), file);
+        }
+
+        final LinkedHashSet<File> toBuild = new LinkedHashSet<>();
+        final Set<String> changedTypes = new HashSet<>(removedTypes);
+        removedTypes.clear();
+        for (Map.Entry<File, File> entry : byKey.entrySet()) {
+            final File key = entry.getKey();
+            if (uncollected.contains(key) || isChanged(key, changedTypes))
+                toBuild.add(key);
+        }
+        for (File dependent : graph.getReferencingTransitively(changedTypes)) {
+            if (byKey.containsKey(dependent))
+                toBuild.add(dependent);
+        }
+
+        final List<File> build = new ArrayList<>(toBuild.size());
+        for (File key : toBuild)
+            build.add(byKey.get(key));
+        this.files = new ArrayList<>(files);
+        building = toBuild;
+        uncollected.addAll(toBuild);
+        compiler.compile(build);
+    }
+
+    private boolean isChanged(File key, Set<String> changedTypes) {
+        final boolean known = graph.contains(key);
+        if (known && hasFeed && !changed.remove(key))
+            return false;
+        final Set<String> before = graph.getDeclaredTypes(key);
+        try {
+            if (!((hasFeed || !known) ? graph.update(key) : graph.refresh(key)))
+                return false;
+        } catch (IOException e) {
+            IdeMetrics.error("Failed to read " + key + ", rebuilding it: " + e.getMessage());
+            return true;
+        }
+        changedTypes.addAll(before);
+        changedTypes.addAll(graph.getDeclaredTypes(key));
+        return true;
+    }
+
+    @Override
+    public synchronized HashMap<File, CompileError> getError() {
+        final HashMap<File, CompileError> built = compiler.getError();
+        for (File key : building)
+            errors.remove(key);
+        for (Map.Entry<File, CompileError> entry : built.entrySet())
+            errors.put(DependencyGraph.key(entry.getKey()), entry.getValue());
+        uncollected.removeAll(building);
+
+        final HashMap<File, CompileError> result = new HashMap<>();
+        for (File file : files) {
+            final CompileError error = errors.get(DependencyGraph.key(file));
+            if (error != null)
+                result.put(file, error);
+        }
+        return result;
+    }
+
+    @Override
+    public void filesystemChanged(Path path, FileEvent event) {
+        if (!path.toString().endsWith(".java"))
+            return;
+        final File key = DependencyGraph.key(path.toFile());
+        if (event == FileEvent.REMOVED) {
+            changed.remove(key);
+            removedTypes.addAll(graph.remove(key));
+        } else {
+            changed.add(key);
+        }
+    }
+
+    public DependencyGraph getDependencyGraph() {
+        return graph;
+    }
+
+    @Override
+    public ReadOnlyDoubleProperty progressProperty() {
+        return compiler.progressProperty();
+    }
+
+    @Override
+    public double getProgress() {
+        return compiler.getProgress();
+    }
+
+    @Override
+    public ReadOnlyBooleanProperty doneProperty() {
+        return compiler.doneProperty();
+    }
+
+    @Override
+    public boolean isDone() {
+        return compiler.isDone();
+    }
+}
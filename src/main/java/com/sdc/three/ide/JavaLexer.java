@@ -0,0 +1,184 @@
+package com.sdc.three.ide;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Splits Java source into the tokens that are highlighted, one line at a time. Lexing a line only needs the state at
+ * its start, which is whether it begins inside a block comment or a text block, so an edit only needs the lines it
+ * touched lexed again, plus the lines after them until their starting state is unchanged.
+ *
+ * This is a lexer for highlighting, not for compiling: anything it does not recognise is left plain.
+ *
+ * @see CodeEditor
+ */
+class JavaLexer {
+
+    /** the state of a line that begins in code */
+    static final int CODE = 0;
+    /** the state of a line that begins inside a block comment */
+    static final int BLOCK_COMMENT = 1;
+    /** the state of a line that begins inside a text block */
+    static final int TEXT_BLOCK = 2;
+
+    static final String KEYWORD = "keyword";
+    static final String STRING = "string";
+    static final String COMMENT = "comment";
+    static final String NUMBER = "number";
+    static final String ANNOTATION = "annotation";
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "var", "record", "yield", "sealed",
+            "permits", "true", "false", "null"));
+
+    /**
+     * Receives the tokens of a line in order, covering every char of it
+     */
+    interface TokenConsumer {
+        /**
+         * @param styleClass the style of the token, or null for plain text
+         * @param length the number of chars in the token
+         */
+        void token(String styleClass, int length);
+    }
+
+    private JavaLexer() {
+    }
+
+    /**
+     * Lexes one line
+     *
+     * @param text the text holding the line
+     * @param start the position of the first char of the line
+     * @param end the position after the last char of the line, not counting the line break
+     * @param state the state at the start of the line
+     * @param out receives the tokens of the line
+     * @return the state at the start of the next line
+     */
+    static int lexLine(CharSequence text, int start, int end, int state, TokenConsumer out) {
+        int i = start;
+        if (state == BLOCK_COMMENT) {
+            final int close = indexOf(text, "*/", i, end);
+            if (close < 0) {
+                emit(out, COMMENT, end - i);
+                return BLOCK_COMMENT;
+            }
+            emit(out, COMMENT, close + 2 - i);
+            i = close + 2;
+        } else if (state == TEXT_BLOCK) {
+            final int close = indexOf(text, "\"\"\"", i, end);
+            if (close < 0) {
+                emit(out, STRING, end - i);
+                return TEXT_BLOCK;
+            }
+            emit(out, STRING, close + 3 - i);
+            i = close + 3;
+        }
+
+        int plain = i; // the start of the plain text not yet emitted
+        while (i < end) {
+            final char c = text.charAt(i);
+            if (c == '/' && i + 1 < end && text.charAt(i + 1) == '/') {
+                emit(out, null, i - plain);
+                emit(out, COMMENT, end - i);
+                return CODE;
+            } else if (c == '/' && i + 1 < end && text.charAt(i + 1) == '*') {
+                emit(out, null, i - plain);
+                final int close = indexOf(text, "*/", i + 2, end);
+                if (close < 0) {
+                    emit(out, COMMENT, end - i);
+                    return BLOCK_COMMENT;
+                }
+                emit(out, COMMENT, close + 2 - i);
+                i = plain = close + 2;
+            } else if (c == '"' && startsWith(text, "\"\"\"", i, end)) {
+                emit(out, null, i - plain);
+                final int close = indexOf(text, "\"\"\"", i + 3, end);
+                if (close < 0) {
+                    emit(out, STRING, end - i);
+                    return TEXT_BLOCK;
+                }
+                emit(out, STRING, close + 3 - i);
+                i = plain = close + 3;
+            } else if (c == '"' || c == '\'') {
+                emit(out, null, i - plain);
+                final int close = closeQuote(text, c, i + 1, end);
+                emit(out, STRING, close - i);
+                i = plain = close;
+            } else if (c == '@' && i + 1 < end && Character.isJavaIdentifierStart(text.charAt(i + 1))) {
+                emit(out, null, i - plain);
+                final int wordEnd = wordEnd(text, i + 1, end);
+                emit(out, ANNOTATION, wordEnd - i);
+                i = plain = wordEnd;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                final int wordEnd = wordEnd(text, i + 1, end);
+                if (wordEnd - i <= 12 && KEYWORDS.contains(text.subSequence(i, wordEnd).toString())) {
+                    emit(out, null, i - plain);
+                    emit(out, KEYWORD, wordEnd - i);
+                    plain = wordEnd;
+                }
+                i = wordEnd;
+            } else if (Character.isDigit(c)) {
+                emit(out, null, i - plain);
+                int numberEnd = i + 1;
+                while (numberEnd < end && (Character.isLetterOrDigit(text.charAt(numberEnd))
+                        || text.charAt(numberEnd) == '_' || text.charAt(numberEnd) == '.'))
+                    numberEnd++;
+                emit(out, NUMBER, numberEnd - i);
+                i = plain = numberEnd;
+            } else {
+                i++;
+            }
+        }
+        emit(out, null, end - plain);
+        return CODE;
+    }
+
+    private static void emit(TokenConsumer out, String styleClass, int length) {
+        if (length > 0)
+            out.token(styleClass, length);
+    }
+
+    private static int wordEnd(CharSequence text, int from, int end) {
+        while (from < end && Character.isJavaIdentifierPart(text.charAt(from)))
+            from++;
+        return from;
+    }
+
+    /**
+     * @return the position after the closing quote, or the end of the line if it is not closed
+     */
+    private static int closeQuote(CharSequence text, char quote, int from, int end) {
+        for (int i = from; i < end; i++) {
+            final char c = text.charAt(i);
+            if (c == '\\')
+                i++;
+            else if (c == quote)
+                return i + 1;
+        }
+        return end;
+    }
+
+    private static boolean startsWith(CharSequence text, String prefix, int from, int end) {
+        if (end - from < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(from + i) != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence text, String target, int from, int end) {
+        for (int i = from; i <= end - target.length(); i++) {
+            if (startsWith(text, target, i, end))
+                return i;
+        }
+        return -1;
+    }
+}
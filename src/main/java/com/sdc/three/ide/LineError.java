@@ -1,25 +1,83 @@
 package com.sdc.three.ide;
 
+import java.io.File;
+
 public class LineError {
 
+    public enum Severity {
+        ERROR, WARNING, NOTE
+    }
+
+    private final File file;
     private final int line;
+    private final int column;
+    private final Severity severity;
     private final String message;
 
     public LineError(int line, String message) {
+        this(null, line, 0, Severity.ERROR, message);
+    }
+
+    /**
+     * Creates a LineError
+     *
+     * @param file the source file of the error, or null if the error is not tied to a file
+     * @param line the line of the error starting at 1, or 0 if unknown
+     * @param column the column of the error starting at 1, or 0 if unknown
+     * @param severity the severity of the error
+     * @param message the message of the error
+     */
+    public LineError(File file, int line, int column, Severity severity, String message) {
+        if (severity == null || message == null)
+            throw new NullPointerException("Severity and message cannot be null");
+        this.file = file;
         this.line = line;
+        this.column = column;
+        this.severity = severity;
         this.message = message;
     }
 
+    File getFile() {
+        return file;
+    }
+
     int getLine() {
         return line;
     }
 
+    int getColumn() {
+        return column;
+    }
+
+    Severity getSeverity() {
+        return severity;
+    }
+
     String getMessage() {
         return message;
     }
 
+    /**
+     * Returns the name of the top level class of the file, the file name without the .java extension
+     * @return the class name, or an empty String if the error is not tied to a file
+     */
     String getClassname() {
-        return "Not Implemented";
+        if (file == null)
+            return "";
+        final String name = file.getName();
+        final int extension = name.lastIndexOf('.');
+        return extension > 0 ? name.substring(0, extension) : name;
     }
 
+    /**
+     * Formats the error the same way javac prints the first line of a diagnostic
+     * @return the formatted error
+     */
+    @Override
+    public String toString() {
+        final String severity = this.severity.name().toLowerCase();
+        if (file == null)
+            return String.format("%s: %s", severity, message);
+        return String.format("%s:%d: %s: %s", file.getPath(), line, severity, message);
+    }
 }
@@ -0,0 +1,10 @@
+package com.sdc.three.ide;
+
+public interface LineErrorListener {
+    /**
+     * Called as soon as an error is found, before the compilation finishes. It is called on the compiling
+     * threads, possibly several at once, so UI changes must be made through Platform.runLater.
+     * @param error the error found
+     */
+    void errorFound(LineError error);
+}
@@ -0,0 +1,119 @@
+package com.sdc.three.ide;
+
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeItem;
+
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * A TreeItem of a Path that knows if it is a directory, so that showing it never needs to touch the filesystem. The
+ * file name and extension shown for it are computed the first time they are asked for, then kept.
+ *
+ * A directory may be created with a loader, in which case its children are only listed the first time
+ * {@link #getChildren()} is called. A TreeView only asks for the children of expanded items, so the children of a
+ * lazy directory are read when the user first expands it.
+ *
+ * @see Workspace#Workspace(java.io.File, boolean)
+ */
+public class PathTreeItem extends TreeItem<Path> {
+
+    private final boolean directory;
+    private volatile Consumer<PathTreeItem> loader;
+    /** if the loader is running on the thread holding the monitor, which adds the children through getChildren */
+    private boolean loading;
+    private String name;
+    private String extension;
+
+    /**
+     * Creates a PathTreeItem whose children are added directly
+     * @param path the path of the item
+     * @param directory if the path is a directory
+     */
+    public PathTreeItem(Path path, boolean directory) {
+        this(path, directory, null);
+    }
+
+    /**
+     * Creates a PathTreeItem
+     * @param path the path of the item
+     * @param directory if the path is a directory
+     * @param loader adds the children of the item when they are first asked for, or null if they are added directly
+     */
+    public PathTreeItem(Path path, boolean directory, Consumer<PathTreeItem> loader) {
+        super(path);
+        this.directory = directory;
+        this.loader = directory ? loader : null;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the file name of the path
+     * @return the last element of the path, or the whole path if it has no elements
+     */
+    public String getName() {
+        if (name == null) {
+            final Path fileName = getValue().getFileName();
+            name = fileName != null ? fileName.toString() : getValue().toString();
+        }
+        return name;
+    }
+
+    /**
+     * Returns the extension of the file name
+     * @return the extension as given by {@link #extensionOf(String)}, or empty for a directory
+     */
+    public String getExtension() {
+        if (extension == null)
+            extension = directory ? "" : extensionOf(getName());
+        return extension;
+    }
+
+    /**
+     * Returns the extension of a file name: everything from its first '.', as long as that '.' is not the last
+     * character. "Main.java" gives ".java", "a.tar.gz" gives ".tar.gz" and ".gitignore" gives itself.
+     *
+     * @param name a file name
+     * @return the extension including the '.', or empty if there is none
+     */
+    public static String extensionOf(String name) {
+        final int dot = name.indexOf('.');
+        return dot >= 0 && dot < name.length() - 1 ? name.substring(dot) : "";
+    }
+
+    /**
+     * Returns if the children of this item have been listed
+     * @return false if the children will be loaded when they are first asked for
+     */
+    public boolean isLoaded() {
+        return loader == null;
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return !directory;
+    }
+
+    @Override
+    public ObservableList<TreeItem<Path>> getChildren() {
+        if (loader != null) {
+            synchronized (this) {
+                final Consumer<PathTreeItem> load = loader;
+                if (load != null && !loading) {
+                    loading = true;
+                    try {
+                        load.accept(this);
+                        // cleared only once the children are in, so other threads wait on the monitor meanwhile
+                        loader = null;
+                    } finally {
+                        loading = false;
+                    }
+                }
+            }
+        }
+        return super.getChildren();
+    }
+}
@@ -0,0 +1,421 @@
+package com.sdc.three.ide;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A document kept as a piece table. The text it was created with is never copied or changed; inserted text is appended
+ * to a second buffer, and the document is the sequence of pieces (ranges of either buffer) that make it up. An edit
+ * only splits or adds pieces, so its cost does not grow with the size of the document.
+ *
+ * The pieces are held in a treap ordered by position, each node also counting the chars and line breaks of its
+ * subtree, which makes inserts, deletes, char lookups and line lookups O(log n) in the number of pieces. The position
+ * of every line break in the two buffers is kept in sorted arrays, so the line breaks of part of a piece are counted
+ * with a binary search rather than a scan.
+ *
+ * Nodes are never changed once built; edits copy the path to the nodes they change. {@link #getText()} therefore
+ * returns a snapshot in O(1) that later edits do not affect, which other threads may read while editing continues.
+ *
+ * A PieceTable is not thread safe, it should be edited from one thread, usually the FX thread.
+ */
+public class PieceTable implements TextEditor {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final String original;
+    private final int[] originalBreaks;
+    private char[] added = new char[INITIAL_CAPACITY];
+    private int addedLength;
+    private int[] addedBreaks = new int[INITIAL_CAPACITY];
+    private int addedBreakCount;
+    private Piece root;
+
+    public PieceTable() {
+        this("");
+    }
+
+    /**
+     * Creates a PieceTable
+     * @param text the initial text of the document, kept as is
+     */
+    public PieceTable(CharSequence text) {
+        original = text.toString();
+        originalBreaks = breaksOf(original);
+        root = original.isEmpty() ? null : new Piece(false, 0, original.length(), originalBreaks.length, null, null);
+    }
+
+    @Override
+    public int getLength() {
+        return size(root);
+    }
+
+    @Override
+    public CharSequence getText() {
+        return new Text(root, original, added);
+    }
+
+    @Override
+    public String getText(int start, int end) {
+        checkRange(start, end);
+        return new Text(root, original, added).substring(start, end);
+    }
+
+    @Override
+    public void insertText(int position, CharSequence text) {
+        checkRange(position, position);
+        final int length = text.length();
+        if (length == 0)
+            return;
+        final int start = addedLength;
+        final int breaksBefore = addedBreakCount;
+        appendToBuffer(text);
+        final int breaks = addedBreakCount - breaksBefore;
+
+        final Piece[] halves = split(root, position);
+        Piece left = halves[0];
+        final Piece last = rightmost(left);
+        if (last != null && last.added && last.start + last.length == start)
+            left = extendLast(left, length, breaks); // typing: the text follows on from the piece before it
+        else
+            left = merge(left, new Piece(true, start, length, breaks, null, null));
+        root = merge(left, halves[1]);
+    }
+
+    @Override
+    public void deleteText(int start, int end) {
+        checkRange(start, end);
+        if (start == end)
+            return;
+        final Piece[] before = split(root, start);
+        final Piece[] after = split(before[1], end - start);
+        root = merge(before[0], after[1]);
+    }
+
+    @Override
+    public int getLineCount() {
+        return lines(root) + 1;
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        if (line < 0 || line >= getLineCount())
+            throw new IndexOutOfBoundsException("Line " + line + " of " + getLineCount());
+        if (line == 0)
+            return 0;
+        // find the piece holding the line break that ends line - 1
+        int remaining = line;
+        int position = 0;
+        Piece node = root;
+        while (true) {
+            final int leftLines = lines(node.left);
+            if (remaining <= leftLines) {
+                node = node.left;
+                continue;
+            }
+            remaining -= leftLines;
+            position += size(node.left);
+            if (remaining <= node.breaks) {
+                final int[] breaks = node.added ? addedBreaks : originalBreaks;
+                final int first = lowerBound(breaks, breakCount(node.added), node.start);
+                return position + breaks[first + remaining - 1] - node.start + 1;
+            }
+            remaining -= node.breaks;
+            position += node.length;
+            node = node.right;
+        }
+    }
+
+    @Override
+    public int getLineOf(int position) {
+        checkRange(position, position);
+        int line = 0;
+        int offset = position;
+        Piece node = root;
+        while (node != null) {
+            final int leftSize = size(node.left);
+            if (offset < leftSize) {
+                node = node.left;
+                continue;
+            }
+            line += lines(node.left);
+            offset -= leftSize;
+            if (offset < node.length)
+                return line + countBreaks(node.added, node.start, node.start + offset);
+            line += node.breaks;
+            offset -= node.length;
+            node = node.right;
+        }
+        return line;
+    }
+
+    /**
+     * @return the number of pieces the document is made of
+     */
+    int getPieceCount() {
+        return count(root);
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end < start || end > getLength())
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") of a document of length " + getLength());
+    }
+
+    private void appendToBuffer(CharSequence text) {
+        final int length = text.length();
+        final int needed = addedLength + length;
+        if (needed < 0)
+            throw new OutOfMemoryError("Document too large");
+        if (needed > added.length)
+            added = Arrays.copyOf(added, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, 2L * added.length)));
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            added[addedLength] = c;
+            if (c == '\n') {
+                if (addedBreakCount == addedBreaks.length)
+                    addedBreaks = Arrays.copyOf(addedBreaks, addedBreaks.length * 2);
+                addedBreaks[addedBreakCount++] = addedLength;
+            }
+            addedLength++;
+        }
+    }
+
+    private int breakCount(boolean inAdded) {
+        return inAdded ? addedBreakCount : originalBreaks.length;
+    }
+
+    /**
+     * Counts the line breaks in a range of a buffer
+     */
+    private int countBreaks(boolean inAdded, int from, int to) {
+        final int[] breaks = inAdded ? addedBreaks : originalBreaks;
+        final int count = breakCount(inAdded);
+        return lowerBound(breaks, count, to) - lowerBound(breaks, count, from);
+    }
+
+    /**
+     * @return the index of the first element of the sorted array at least key
+     */
+    private static int lowerBound(int[] array, int length, int key) {
+        final int index = Arrays.binarySearch(array, 0, length, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static int[] breaksOf(String text) {
+        int count = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1))
+            count++;
+        final int[] breaks = new int[count];
+        count = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1))
+            breaks[count++] = i;
+        return breaks;
+    }
+
+    /**
+     * Splits a tree at a position, splitting the piece it falls in if needed
+     * @return the tree before the position and the tree after it, either may be null
+     */
+    private Piece[] split(Piece node, int offset) {
+        if (node == null)
+            return new Piece[2];
+        final int leftSize = size(node.left);
+        if (offset <= leftSize) {
+            final Piece[] halves = split(node.left, offset);
+            halves[1] = node.with(halves[1], node.right);
+            return halves;
+        }
+        final int rightStart = leftSize + node.length;
+        if (offset >= rightStart) {
+            final Piece[] halves = split(node.right, offset - rightStart);
+            halves[0] = node.with(node.left, halves[0]);
+            return halves;
+        }
+        final int cut = offset - leftSize;
+        final int breaks = countBreaks(node.added, node.start, node.start + cut);
+        return new Piece[]{
+                new Piece(node.added, node.start, cut, breaks, node.priority, node.left, null),
+                new Piece(node.added, node.start + cut, node.length - cut, node.breaks - breaks, node.priority, null, node.right)
+        };
+    }
+
+    /**
+     * Joins two trees, every position of the first coming before the second
+     */
+    private static Piece merge(Piece first, Piece second) {
+        if (first == null)
+            return second;
+        if (second == null)
+            return first;
+        if (first.priority > second.priority)
+            return first.with(first.left, merge(first.right, second));
+        return second.with(merge(first, second.left), second.right);
+    }
+
+    private static Piece rightmost(Piece node) {
+        if (node == null)
+            return null;
+        while (node.right != null)
+            node = node.right;
+        return node;
+    }
+
+    /**
+     * Lengthens the last piece of a tree
+     */
+    private static Piece extendLast(Piece node, int length, int breaks) {
+        if (node.right == null)
+            return new Piece(node.added, node.start, node.length + length, node.breaks + breaks, node.priority, node.left, null);
+        return node.with(node.left, extendLast(node.right, length, breaks));
+    }
+
+    private static int size(Piece node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int lines(Piece node) {
+        return node == null ? 0 : node.lines;
+    }
+
+    private static int count(Piece node) {
+        return node == null ? 0 : count(node.left) + 1 + count(node.right);
+    }
+
+    /**
+     * A range of one of the buffers, and the root of the subtree of the pieces around it
+     */
+    private static final class Piece {
+        /** if the range is of the added buffer, rather than the original text */
+        final boolean added;
+        final int start;
+        final int length;
+        /** the line breaks within the range */
+        final int breaks;
+        final int priority;
+        final Piece left;
+        final Piece right;
+        /** the chars of the subtree */
+        final int size;
+        /** the line breaks of the subtree */
+        final int lines;
+
+        Piece(boolean added, int start, int length, int breaks, Piece left, Piece right) {
+            this(added, start, length, breaks, ThreadLocalRandom.current().nextInt(), left, right);
+        }
+
+        Piece(boolean added, int start, int length, int breaks, int priority, Piece left, Piece right) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+            this.breaks = breaks;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            size = size(left) + length + size(right);
+            lines = lines(left) + breaks + lines(right);
+        }
+
+        Piece with(Piece left, Piece right) {
+            return left == this.left && right == this.right ? this
+                    : new Piece(added, start, length, breaks, priority, left, right);
+        }
+    }
+
+    /**
+     * The text of the document at one point. The added buffer is only ever appended to, and a larger buffer is a copy,
+     * so the ranges of the pieces keep their chars whatever is edited later.
+     */
+    private static final class Text implements CharSequence {
+
+        private final Piece root;
+        private final String original;
+        private final char[] added;
+        // the last piece read, so that reading in order does not search the tree for every char
+        private Cursor cursor;
+
+        Text(Piece root, String original, char[] added) {
+            this.root = root;
+            this.original = original;
+            this.added = added;
+        }
+
+        @Override
+        public int length() {
+            return size(root);
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length())
+                throw new IndexOutOfBoundsException("Index " + index + " of length " + length());
+            Cursor cursor = this.cursor;
+            if (cursor == null || index < cursor.offset || index >= cursor.offset + cursor.piece.length) {
+                cursor = find(index);
+                this.cursor = cursor;
+            }
+            final int position = cursor.piece.start + index - cursor.offset;
+            return cursor.piece.added ? added[position] : original.charAt(position);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end < start || end > length())
+                throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") of length " + length());
+            return substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return substring(0, length());
+        }
+
+        String substring(int start, int end) {
+            final StringBuilder builder = new StringBuilder(end - start);
+            append(root, 0, start, end, builder);
+            return builder.toString();
+        }
+
+        private Cursor find(int index) {
+            int offset = 0;
+            Piece node = root;
+            while (true) {
+                final int leftSize = size(node.left);
+                if (index < offset + leftSize) {
+                    node = node.left;
+                } else if (index < offset + leftSize + node.length) {
+                    return new Cursor(node, offset + leftSize);
+                } else {
+                    offset += leftSize + node.length;
+                    node = node.right;
+                }
+            }
+        }
+
+        private void append(Piece node, int offset, int start, int end, StringBuilder builder) {
+            if (node == null || start >= offset + node.size || end <= offset)
+                return;
+            append(node.left, offset, start, end, builder);
+            final int pieceOffset = offset + size(node.left);
+            final int from = Math.max(start, pieceOffset);
+            final int to = Math.min(end, pieceOffset + node.length);
+            if (from < to) {
+                final int position = node.start + from - pieceOffset;
+                if (node.added)
+                    builder.append(added, position, to - from);
+                else
+                    builder.append(original, position, position + to - from);
+            }
+            append(node.right, pieceOffset + node.length, start, end, builder);
+        }
+    }
+
+    private static final class Cursor {
+        final Piece piece;
+        /** the position of the piece in the document */
+        final int offset;
+
+        Cursor(Piece piece, int offset) {
+            this.piece = piece;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.sdc.three.ide;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed number of read/write locks shared out among keys by their hash, so that work on different keys seldom
+ * waits on the same lock while the number of locks stays bounded however many keys there are.
+ *
+ * Holding more than one stripe at a time can deadlock with another thread that takes the same stripes in another order,
+ * since unrelated keys may share a stripe. Take one stripe at a time, or all of them with {@link #lockAll()}.
+ *
+ * Every acquisition that had to wait is counted, along with the time spent waiting, so contention can be watched. Waits
+ * are also recorded as {@link IdeEvents.LockWait} events. A stripe is locked and unlocked by its index, from
+ * {@link #stripe(Object)}, so taking a lock allocates nothing. {@link #lockWrite(int)} and {@link #lockRead(int)}
+ * return the time the lock was taken, which is handed back when unlocking to measure how long it was held.
+ */
+class StripedLock {
+
+    private final ReentrantReadWriteLock[] stripes;
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder holds = new LongAdder();
+    private final LongAdder holdNanos = new LongAdder();
+
+    /**
+     * Creates a StripedLock
+     * @param stripes the number of locks, rounded up to a power of two
+     */
+    StripedLock(int stripes) {
+        final int count = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new ReentrantReadWriteLock[count];
+        for (int i = 0; i < count; i++)
+            this.stripes[i] = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Returns the stripe guarding a key
+     * @return the index of the stripe, to lock and unlock it by
+     */
+    int stripe(Object key) {
+        final int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (stripes.length - 1);
+    }
+
+    /**
+     * Takes the write lock of a stripe
+     * @param stripe the index of the stripe, from {@link #stripe(Object)}
+     * @return the time the lock was taken, to pass to {@link #unlockWrite(int, long)}
+     */
+    long lockWrite(int stripe) {
+        acquire(stripes[stripe].writeLock());
+        return System.nanoTime();
+    }
+
+    /**
+     * Releases the write lock of a stripe, recording how long it was held
+     * @param locked the time returned when it was taken
+     */
+    void unlockWrite(int stripe, long locked) {
+        held(locked);
+        stripes[stripe].writeLock().unlock();
+    }
+
+    /**
+     * Takes the read lock of a stripe
+     * @param stripe the index of the stripe, from {@link #stripe(Object)}
+     * @return the time the lock was taken, to pass to {@link #unlockRead(int, long)}
+     */
+    long lockRead(int stripe) {
+        acquire(stripes[stripe].readLock());
+        return System.nanoTime();
+    }
+
+    /**
+     * Releases the read lock of a stripe, recording how long it was held
+     * @param locked the time returned when it was taken
+     */
+    void unlockRead(int stripe, long locked) {
+        held(locked);
+        stripes[stripe].readLock().unlock();
+    }
+
+    boolean isWriteLockedByCurrentThread(Object key) {
+        return stripes[stripe(key)].isWriteLockedByCurrentThread();
+    }
+
+    /**
+     * Takes the write lock of every stripe, in order
+     */
+    void lockAll() {
+        for (ReentrantReadWriteLock stripe : stripes)
+            acquire(stripe.writeLock());
+    }
+
+    void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--)
+            stripes[i].writeLock().unlock();
+    }
+
+    /**
+     * @return the number of acquisitions that had to wait for another thread
+     */
+    long getContendedCount() {
+        return contended.sum();
+    }
+
+    /**
+     * @return the total time spent waiting for the locks in nanoseconds
+     */
+    long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    /**
+     * @return the average time a lock was held for in nanoseconds, zero if none was unlocked yet
+     */
+    double getAverageHoldNanos() {
+        final long count = holds.sum();
+        return count == 0 ? 0 : holdNanos.sum() / (double) count;
+    }
+
+    private void held(long locked) {
+        holdNanos.add(System.nanoTime() - locked);
+        holds.increment();
+    }
+
+    private void acquire(Lock lock) {
+        if (!lock.tryLock()) {
+            final IdeEvents.LockWait event = new IdeEvents.LockWait();
+            event.begin();
+            final long start = System.nanoTime();
+            lock.lock();
+            contended.increment();
+            waitNanos.add(System.nanoTime() - start);
+            event.commit();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StripedLock[" + stripes.length + " stripes, " + getContendedCount() + " contended, "
+                + TimeUnit.NANOSECONDS.toMillis(getWaitNanos()) + " ms waiting]";
+    }
+}
@@ -1,4 +1,103 @@
 package com.sdc.three.ide;
 
+/**
+ * A document being edited. Positions are char offsets from the start of the document, and lines are counted from 0,
+ * each '\n' starting a new line.
+ *
+ * @see PieceTable
+ */
 public interface TextEditor {
+
+    /**
+     * @return the number of chars in the document
+     */
+    int getLength();
+
+    /**
+     * Returns the text of the document. The sequence is read only and does not change with later edits, so it may be
+     * handed to other threads.
+     *
+     * @return the whole text
+     */
+    CharSequence getText();
+
+    /**
+     * Returns part of the text
+     *
+     * @param start the first position, inclusive
+     * @param end the last position, exclusive
+     * @return the text between the positions
+     * @throws IndexOutOfBoundsException if the range is not within the document
+     */
+    String getText(int start, int end);
+
+    /**
+     * Inserts text
+     *
+     * @param position where the text is inserted
+     * @param text the text to insert
+     * @throws IndexOutOfBoundsException if the position is not within the document
+     */
+    void insertText(int position, CharSequence text);
+
+    /**
+     * Deletes text
+     *
+     * @param start the first position, inclusive
+     * @param end the last position, exclusive
+     * @throws IndexOutOfBoundsException if the range is not within the document
+     */
+    void deleteText(int start, int end);
+
+    /**
+     * Replaces part of the text
+     *
+     * @param start the first position, inclusive
+     * @param end the last position, exclusive
+     * @param text the text put in its place
+     * @throws IndexOutOfBoundsException if the range is not within the document
+     */
+    default void replaceText(int start, int end, CharSequence text) {
+        deleteText(start, end);
+        insertText(start, text);
+    }
+
+    /**
+     * Replaces the whole text
+     * @param text the new text of the document
+     */
+    default void replaceText(CharSequence text) {
+        replaceText(0, getLength(), text);
+    }
+
+    /**
+     * Adds text to the end of the document
+     * @param text the text to add
+     */
+    default void appendText(CharSequence text) {
+        insertText(getLength(), text);
+    }
+
+    /**
+     * @return the number of lines, which is one more than the number of line breaks
+     */
+    int getLineCount();
+
+    /**
+     * Returns where a line starts
+     *
+     * @param line the line, from 0
+     * @return the position of the first char of the line
+     * @throws IndexOutOfBoundsException if there is no such line
+     */
+    int getLineStart(int line);
+
+    /**
+     * Returns the line a position is in
+     *
+     * @param position a position in the document, or its length
+     * @return the line, from 0
+     * @throws IndexOutOfBoundsException if the position is not within the document
+     */
+    int getLineOf(int position);
 }
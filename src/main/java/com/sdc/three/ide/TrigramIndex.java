@@ -0,0 +1,842 @@
+package com.sdc.three.ide;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A full-text index of the text files of a {@link Workspace}, so that a search only reads the files that can match.
+ *
+ * Every run of three characters of a file, folded to lower case, is a trigram. Each trigram has a posting list: the
+ * sorted ids of the files it appears in, kept in a plain int array. A search takes the literal text that every match
+ * must contain, from the query or from the pattern of a regex, and only reads the files that are in the posting lists
+ * of all its trigrams. Those candidates are then matched in parallel, and each match is handed on as soon as its file
+ * is read. A query without three literal characters in a row has no trigrams and reads every file.
+ *
+ * The index is built in parallel when it is created, and follows the events of the workspace after that. Directories
+ * that appear are indexed in the background, see {@link #isIndexing()}. A file that changes is given a new id rather
+ * than being taken out of every posting list, so lists are only ever appended to and stay sorted; the ids of old
+ * versions are dropped from the lists once they outnumber the live files. The directories holding indexed files are
+ * remembered, so that only the removal of one of them looks for the files below it.
+ *
+ * Files larger than {@value #MAX_FILE_BYTES} bytes, and files with a NUL byte near their start, are taken as not being
+ * text and are not indexed.
+ */
+public class TrigramIndex implements BatchFileChangeListener {
+
+    static final int MAX_FILE_BYTES = 8 << 20;
+    private static final int BINARY_PROBE_BYTES = 8_000;
+    private static final int MIN_COMPACT_IDS = 1_024;
+    private static final int[] NO_TRIGRAMS = new int[0];
+    private static final ForkJoinPool indexPool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private final Workspace workspace;
+    private final Path root;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // all of the fields below are guarded by the lock
+    private final PostingTable postings = new PostingTable();
+    private final Map<Path, Integer> ids = new HashMap<>();
+    /** the directories that have had indexed files below them */
+    private final Set<Path> directories = new HashSet<>();
+    private final BitSet live = new BitSet();
+    private Path[] files = new Path[1_024];
+    private int nextId;
+    private volatile long buildMillis;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Creates a TrigramIndex of every text file in the workspace, which follows the workspace until
+     * {@link #detach()} is called
+     *
+     * @param workspace the workspace to index
+     * @throws IOException if the workspace could not be listed
+     */
+    public TrigramIndex(Workspace workspace) throws IOException {
+        this.workspace = workspace;
+        root = workspace.getDirectory().toPath().normalize();
+        workspace.getListeners().add(this);
+        final long start = System.nanoTime();
+        try {
+            addAll(root, false);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        buildMillis = (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * Stops following the changes of the workspace
+     */
+    public void detach() {
+        workspace.getListeners().remove(this);
+    }
+
+    /**
+     * @return the number of files indexed
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the time taken to build the index when it was created, in milliseconds
+     */
+    public long getBuildMillis() {
+        return buildMillis;
+    }
+
+    /**
+     * @return true while directories that were added or changed are still being indexed
+     */
+    public boolean isIndexing() {
+        return pending.get() > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A file is indexed again on the calling thread. A directory is walked and indexed on the index pool, so that the
+     * watch threads delivering the event do not wait for it.
+     */
+    @Override
+    public void filesystemChanged(Path path, FileEvent event) {
+        final Path normalized = path.normalize();
+        if (event == FileEvent.REMOVED) {
+            remove(normalized);
+        } else if (Files.isDirectory(normalized)) {
+            pending.incrementAndGet();
+            indexPool.execute(() -> {
+                try {
+                    addAll(normalized, true);
+                } catch (IOException | UncheckedIOException e) {
+                    IdeMetrics.error("Failed to index " + path + ": " + e.getMessage());
+                } finally {
+                    pending.decrementAndGet();
+                }
+            });
+        } else {
+            index(normalized, true);
+        }
+    }
+
+    @Override
+    public void filesystemChanged(Map<Path, FileEvent> changes) {
+        for (Map.Entry<Path, FileEvent> change : changes.entrySet())
+            filesystemChanged(change.getKey(), change.getValue());
+    }
+
+    /**
+     * Finds every match of a pattern in the indexed files, blocking until all the candidate files are searched. The
+     * candidates are searched in parallel, so matches are handed on from several threads at once, each as soon as its
+     * file is searched, and in no particular order across files.
+     *
+     * @param pattern the pattern to find
+     * @param matches takes every match found
+     * @param cancelled stops the search once it returns true
+     * @return the number of matches found
+     */
+    public int search(Pattern pattern, Consumer<Match> matches, BooleanSupplier cancelled) {
+        final List<Path> candidates = candidates(pattern);
+        final AtomicInteger found = new AtomicInteger();
+        try {
+            indexPool.submit(() -> candidates.parallelStream().forEach(file -> {
+                if (!cancelled.getAsBoolean())
+                    found.addAndGet(searchFile(file, pattern, matches));
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            IdeMetrics.error("Search for " + pattern + " failed: " + e.getCause());
+        }
+        return found.get();
+    }
+
+    /**
+     * Finds every match of a pattern in the indexed files on a background thread. Matches are handed to the consumer on
+     * the FX thread in batches as they are found; the value of the task is the number of matches.
+     *
+     * @param pattern the pattern to find
+     * @param matches takes every match found, on the FX thread
+     * @return the running search, which can be cancelled
+     */
+    public Task<Integer> search(Pattern pattern, Consumer<Match> matches) {
+        final Queue<Match> pending = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final Task<Integer> task = new Task<>() {
+            @Override
+            protected Integer call() {
+                return search(pattern, match -> {
+                    pending.add(match);
+                    if (scheduled.compareAndSet(false, true))
+                        Platform.runLater(this::deliver);
+                }, this::isCancelled);
+            }
+
+            private void deliver() {
+                scheduled.set(false);
+                for (Match match = pending.poll(); match != null && !isCancelled(); match = pending.poll())
+                    matches.accept(match);
+            }
+        };
+        final Thread thread = new Thread(task, "Search " + pattern);
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Returns a pattern that finds text as is, ignoring case
+     * @param text the text to find
+     * @return the pattern of the text
+     */
+    public static Pattern literal(String text) {
+        return Pattern.compile(text, Pattern.LITERAL | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+    /**
+     * Returns the files that may contain a match of a pattern: those that have every trigram the pattern requires
+     *
+     * @param pattern the pattern to find
+     * @return the candidate files, in the order they were indexed
+     */
+    List<Path> candidates(Pattern pattern) {
+        final int[] required = trigramsOf(requiredLiterals(pattern));
+        lock.readLock().lock();
+        try {
+            final List<Path> candidates = new ArrayList<>();
+            if (required.length == 0) {
+                for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1))
+                    candidates.add(files[id]);
+                return candidates;
+            }
+            final int[] ids = postings.intersect(required);
+            for (int id : ids) {
+                if (live.get(id))
+                    candidates.add(files[id]);
+            }
+            return candidates;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes a file, or every file below a directory
+     *
+     * @param path the file or directory
+     * @param replace if files already indexed should be indexed again. The first build does not replace, so that it
+     *                does not undo the events that arrived while it ran.
+     */
+    private void addAll(Path path, boolean replace) throws IOException {
+        if (Files.isRegularFile(path)) {
+            index(path, replace);
+        } else if (Files.isDirectory(path)) {
+            final List<Path> found = new ArrayList<>();
+            try (Stream<Path> walk = Files.walk(path)) {
+                walk.filter(Files::isRegularFile).forEach(found::add);
+            }
+            try {
+                indexPool.submit(() -> found.parallelStream().forEach(file -> index(file, replace))).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof UncheckedIOException ? (UncheckedIOException) e.getCause()
+                        : new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    private void index(Path file, boolean replace) {
+        try {
+            add(file, read(file), replace);
+        } catch (UncheckedIOException e) {
+            IdeMetrics.error("Failed to index " + file + ": " + e.getCause().getMessage());
+        }
+    }
+
+    private void add(Path file, CharSequence text, boolean replace) {
+        final int[] trigrams = text == null ? null : trigramsOf(List.of(text));
+        lock.writeLock().lock();
+        try {
+            final Integer old = ids.get(file);
+            if (old != null && !replace)
+                return; // indexed by an event meanwhile
+            if (old != null) {
+                live.clear(old);
+                ids.remove(file);
+            }
+            if (trigrams == null)
+                return;
+            if (nextId == files.length)
+                files = Arrays.copyOf(files, files.length * 2);
+            final int id = nextId++;
+            files[id] = file;
+            ids.put(file, id);
+            if (old == null) {
+                for (Path dir = file.getParent(); dir != null && dir.startsWith(root) && directories.add(dir); )
+                    dir = dir.getParent();
+            }
+            live.set(id);
+            for (int trigram : trigrams)
+                postings.add(trigram, id);
+            if (nextId - ids.size() > Math.max(MIN_COMPACT_IDS, ids.size()))
+                compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(Path path) {
+        lock.writeLock().lock();
+        try {
+            final Integer id = ids.remove(path);
+            if (id != null) {
+                live.clear(id);
+                return;
+            }
+            if (!directories.remove(path))
+                return; // a file that was not indexed, or a directory without indexed files
+            // a directory, whose files all go with it
+            directories.removeIf(dir -> dir.startsWith(path));
+            final Iterator<Map.Entry<Path, Integer>> entries = ids.entrySet().iterator();
+            while (entries.hasNext()) {
+                final Map.Entry<Path, Integer> entry = entries.next();
+                if (entry.getKey().startsWith(path)) {
+                    live.clear(entry.getValue());
+                    entries.remove();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gives the live files new ids from zero in the same order, and drops the ids of old versions from every posting
+     * list. The order of ids is kept, so the lists stay sorted.
+     */
+    private void compact() {
+        final int[] renumbered = new int[nextId];
+        final Path[] compacted = new Path[Math.max(1_024, Integer.highestOneBit(Math.max(1, ids.size())) << 1)];
+        int count = 0;
+        for (int id = 0; id < nextId; id++) {
+            if (live.get(id)) {
+                compacted[count] = files[id];
+                renumbered[id] = count++;
+            } else {
+                renumbered[id] = -1;
+            }
+        }
+        postings.renumber(renumbered);
+        files = compacted;
+        nextId = count;
+        live.clear();
+        live.set(0, count);
+        for (int id = 0; id < count; id++)
+            ids.put(files[id], id);
+    }
+
+    /**
+     * Reads a file as UTF-8, or returns null if it is gone or does not look like text
+     */
+    private static String read(Path file) {
+        try {
+            if (Files.size(file) > MAX_FILE_BYTES)
+                return null;
+            final byte[] bytes = Files.readAllBytes(file);
+            for (int i = 0; i < Math.min(bytes.length, BINARY_PROBE_BYTES); i++) {
+                if (bytes[i] == 0)
+                    return null;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null; // removed since, its event follows
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int searchFile(Path file, Pattern pattern, Consumer<Match> matches) {
+        final String text;
+        try {
+            text = read(file);
+        } catch (UncheckedIOException e) {
+            IdeMetrics.error("Failed to search " + file + ": " + e.getCause().getMessage());
+            return 0;
+        }
+        if (text == null)
+            return 0;
+        int found = 0;
+        int line = 1;
+        int lineStart = 0;
+        int counted = 0;
+        final Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            for (; counted < matcher.start(); counted++) {
+                if (text.charAt(counted) == '\n') {
+                    line++;
+                    lineStart = counted + 1;
+                }
+            }
+            int lineEnd = text.indexOf('\n', matcher.start());
+            if (lineEnd < 0)
+                lineEnd = text.length();
+            matches.accept(new Match(file, line, matcher.start() - lineStart, matcher.end() - matcher.start(),
+                    text.substring(lineStart, lineEnd)));
+            found++;
+        }
+        return found;
+    }
+
+    /**
+     * Returns the distinct trigrams of some text, folded to lower case and sorted
+     */
+    static int[] trigramsOf(List<? extends CharSequence> texts) {
+        int count = 0;
+        for (CharSequence text : texts)
+            count += Math.max(0, text.length() - 2);
+        if (count == 0)
+            return NO_TRIGRAMS;
+        final int[] trigrams = new int[count];
+        int next = 0;
+        for (CharSequence text : texts) {
+            if (text.length() < 3)
+                continue;
+            int key = fold(text.charAt(0)) << 10 | fold(text.charAt(1));
+            for (int i = 2; i < text.length(); i++) {
+                key = (key << 10 | fold(text.charAt(i))) & 0x3fff_ffff;
+                trigrams[next++] = key;
+            }
+        }
+        Arrays.sort(trigrams);
+        int distinct = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1])
+                trigrams[distinct++] = trigrams[i];
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    /**
+     * Folds a character to the ten bits it has in a trigram. Characters that share them only make more candidates.
+     */
+    private static int fold(char c) {
+        return Character.toLowerCase(c) & 0x3ff;
+    }
+
+    /**
+     * Returns runs of literal text that every match of a pattern contains. Anything the runs cannot be sure of, such as
+     * alternation, groups, classes and optional characters, only ends the run it is in, so that no match is missed.
+     *
+     * @param pattern the pattern to find
+     * @return the literal runs, which may be empty
+     */
+    static List<String> requiredLiterals(Pattern pattern) {
+        final String regex = pattern.pattern();
+        if ((pattern.flags() & Pattern.LITERAL) != 0)
+            return List.of(regex);
+        final List<String> literals = new ArrayList<>();
+        if ((pattern.flags() & Pattern.COMMENTS) != 0 || regex.contains("(?x") || hasTopLevelAlternation(regex))
+            return literals;
+        final StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                final char escaped = regex.charAt(i + 1);
+                if (escaped == 'Q') {
+                    final int end = regex.indexOf("\\E", i + 2);
+                    final String quoted = end < 0 ? regex.substring(i + 2) : regex.substring(i + 2, end);
+                    i = end < 0 ? regex.length() : end + 2;
+                    if (isOptional(regex, i)) {
+                        run.append(quoted, 0, Math.max(0, quoted.length() - 1));
+                        endRun(run, literals);
+                        i = skipQuantifier(regex, i);
+                    } else {
+                        run.append(quoted);
+                    }
+                    continue;
+                }
+                if (Character.isLetterOrDigit(escaped)) {
+                    endRun(run, literals);
+                    i = skipEscape(regex, i);
+                    i = skipQuantifier(regex, i);
+                    continue;
+                }
+                i = literal(regex, i + 2, escaped, run, literals);
+            } else if (c == '[') {
+                endRun(run, literals);
+                i = skipQuantifier(regex, skipClass(regex, i));
+            } else if (c == '(') {
+                endRun(run, literals);
+                i = skipQuantifier(regex, skipGroup(regex, i));
+            } else if (".^$|)".indexOf(c) >= 0) {
+                endRun(run, literals);
+                i = skipQuantifier(regex, i + 1);
+            } else if ("?*+{".indexOf(c) >= 0) {
+                endRun(run, literals); // a quantifier with nothing before it
+                i++;
+            } else {
+                i = literal(regex, i + 1, c, run, literals);
+            }
+        }
+        endRun(run, literals);
+        return literals;
+    }
+
+    /**
+     * Adds a literal character to the run, unless a quantifier after it can leave it out
+     *
+     * @return the index after the character and its quantifier
+     */
+    private static int literal(String regex, int after, char c, StringBuilder run, List<String> literals) {
+        if (after < regex.length() && regex.charAt(after) == '+') {
+            run.append(c); // one or more times: it is there, but what follows may not be next to it
+            endRun(run, literals);
+            return skipQuantifier(regex, after);
+        }
+        if (isOptional(regex, after)) {
+            endRun(run, literals);
+            return skipQuantifier(regex, after);
+        }
+        run.append(c);
+        return after;
+    }
+
+    private static boolean isOptional(String regex, int i) {
+        return i < regex.length() && "?*{".indexOf(regex.charAt(i)) >= 0;
+    }
+
+    private static void endRun(StringBuilder run, List<String> literals) {
+        if (run.length() >= 3)
+            literals.add(run.toString());
+        run.setLength(0);
+    }
+
+    private static int skipQuantifier(String regex, int i) {
+        if (i >= regex.length())
+            return i;
+        final char c = regex.charAt(i);
+        if (c == '{') {
+            final int end = regex.indexOf('}', i);
+            i = end < 0 ? regex.length() : end + 1;
+        } else if (c == '?' || c == '*' || c == '+') {
+            i++;
+        } else {
+            return i;
+        }
+        // a lazy or possessive quantifier
+        return i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+') ? i + 1 : i;
+    }
+
+    /**
+     * @return the index after an escape of a letter or digit, with the arguments it takes
+     */
+    private static int skipEscape(String regex, int i) {
+        final char c = regex.charAt(i + 1);
+        i += 2;
+        switch (c) {
+            case 'u':
+                return Math.min(regex.length(), i + 4);
+            case 'x':
+                if (i < regex.length() && regex.charAt(i) == '{')
+                    return skipPast(regex, i, '}');
+                return Math.min(regex.length(), i + 2);
+            case 'c':
+                return Math.min(regex.length(), i + 1);
+            case 'p': case 'P': case 'N': case 'b':
+                return i < regex.length() && regex.charAt(i) == '{' ? skipPast(regex, i, '}') : i;
+            case 'k':
+                return i < regex.length() && regex.charAt(i) == '<' ? skipPast(regex, i, '>') : i;
+            case '0':
+                while (i < regex.length() && regex.charAt(i) >= '0' && regex.charAt(i) <= '7')
+                    i++;
+                return i;
+            default:
+                if (Character.isDigit(c)) {
+                    while (i < regex.length() && Character.isDigit(regex.charAt(i)))
+                        i++;
+                }
+                return i;
+        }
+    }
+
+    private static int skipPast(String regex, int i, char end) {
+        final int found = regex.indexOf(end, i);
+        return found < 0 ? regex.length() : found + 1;
+    }
+
+    /**
+     * @return the index after the character class starting at i
+     */
+    private static int skipClass(String regex, int i) {
+        int depth = 0;
+        for (; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                depth++;
+                // a ] first in the class is a member of it
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']')
+                    i++;
+                else if (i + 2 < regex.length() && regex.charAt(i + 1) == '^' && regex.charAt(i + 2) == ']')
+                    i += 2;
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * @return the index after the group starting at i
+     */
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        for (; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = skipClass(regex, i) - 1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return i;
+    }
+
+    private static boolean hasTopLevelAlternation(String regex) {
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                    final int end = regex.indexOf("\\E", i + 2);
+                    i = end < 0 ? regex.length() : end + 1;
+                } else {
+                    i++;
+                }
+            } else if (c == '[') {
+                i = skipClass(regex, i) - 1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A match of a search
+     */
+    public static final class Match {
+
+        private final Path path;
+        private final int line;
+        private final int column;
+        private final int length;
+        private final String lineText;
+
+        Match(Path path, int line, int column, int length, String lineText) {
+            this.path = path;
+            this.line = line;
+            this.column = column;
+            this.length = length;
+            this.lineText = lineText;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return the line of the start of the match, counting from one
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * @return the column of the start of the match in its line, counting from zero
+         */
+        public int getColumn() {
+            return column;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * @return the whole line the match starts in
+         */
+        public String getLineText() {
+            return lineText;
+        }
+
+        @Override
+        public String toString() {
+            return path + ":" + line + ":" + (column + 1) + ": " + lineText.strip();
+        }
+    }
+
+    /**
+     * Posting lists by trigram, in an open addressing hash table so that neither the trigrams nor the file ids are
+     * boxed. Each list is an int array of file ids in increasing order, with spare room at its end.
+     */
+    private static final class PostingTable {
+
+        private int[] keys = new int[1 << 12];
+        private int[][] lists = new int[1 << 12][];
+        private int[] sizes = new int[1 << 12];
+        private int count;
+
+        void add(int trigram, int id) {
+            int slot = slotOf(trigram);
+            if (lists[slot] == null) {
+                if ((count + 1) * 4 > keys.length * 3) {
+                    grow();
+                    slot = slotOf(trigram);
+                }
+                keys[slot] = trigram;
+                lists[slot] = new int[2];
+                count++;
+            }
+            int[] list = lists[slot];
+            if (sizes[slot] == list.length)
+                lists[slot] = list = Arrays.copyOf(list, list.length + (list.length >> 1) + 1);
+            list[sizes[slot]++] = id;
+        }
+
+        /**
+         * @return the ids in every list of the trigrams, in increasing order
+         */
+        int[] intersect(int[] trigrams) {
+            final int[] slots = new int[trigrams.length];
+            for (int i = 0; i < trigrams.length; i++) {
+                slots[i] = slotOf(trigrams[i]);
+                if (lists[slots[i]] == null)
+                    return NO_TRIGRAMS;
+            }
+            // shortest first, so the result is never longer than the shortest list
+            final Integer[] order = new Integer[slots.length];
+            for (int i = 0; i < order.length; i++)
+                order[i] = slots[i];
+            Arrays.sort(order, (a, b) -> Integer.compare(sizes[a], sizes[b]));
+            int[] result = Arrays.copyOf(lists[order[0]], sizes[order[0]]);
+            int length = result.length;
+            for (int i = 1; i < order.length && length > 0; i++) {
+                final int[] list = lists[order[i]];
+                final int size = sizes[order[i]];
+                int kept = 0;
+                int j = 0;
+                for (int k = 0; k < length && j < size; k++) {
+                    while (j < size && list[j] < result[k])
+                        j++;
+                    if (j < size && list[j] == result[k])
+                        result[kept++] = result[k];
+                }
+                length = kept;
+            }
+            return length == result.length ? result : Arrays.copyOf(result, length);
+        }
+
+        /**
+         * Maps every id of every list, dropping those mapped to -1 and lists left empty
+         */
+        void renumber(int[] renumbered) {
+            final int[] oldKeys = keys;
+            final int[][] oldLists = lists;
+            final int[] oldSizes = sizes;
+            keys = new int[oldKeys.length];
+            lists = new int[oldKeys.length][];
+            sizes = new int[oldKeys.length];
+            count = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldLists[slot] == null)
+                    continue;
+                final int[] list = oldLists[slot];
+                int kept = 0;
+                for (int i = 0; i < oldSizes[slot]; i++) {
+                    final int id = renumbered[list[i]];
+                    if (id >= 0)
+                        list[kept++] = id;
+                }
+                if (kept == 0)
+                    continue;
+                final int to = slotOf(oldKeys[slot]);
+                keys[to] = oldKeys[slot];
+                lists[to] = kept < list.length / 2 ? Arrays.copyOf(list, kept) : list;
+                sizes[to] = kept;
+                count++;
+            }
+        }
+
+        private void grow() {
+            final int[] oldKeys = keys;
+            final int[][] oldLists = lists;
+            final int[] oldSizes = sizes;
+            keys = new int[oldKeys.length * 2];
+            lists = new int[oldKeys.length * 2][];
+            sizes = new int[oldKeys.length * 2];
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldLists[slot] == null)
+                    continue;
+                final int to = slotOf(oldKeys[slot]);
+                keys[to] = oldKeys[slot];
+                lists[to] = oldLists[slot];
+                sizes[to] = oldSizes[slot];
+            }
+        }
+
+        /**
+         * @return the slot of a trigram, or the empty slot it would take
+         */
+        private int slotOf(int trigram) {
+            final int mask = keys.length - 1;
+            int slot = (trigram * 0x9e3779b9 >>> 8) & mask;
+            while (lists[slot] != null && keys[slot] != trigram)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+    }
+}
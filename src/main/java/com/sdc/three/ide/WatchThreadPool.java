@@ -1,26 +1,111 @@
 package com.sdc.three.ide;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static java.nio.file.StandardWatchEventKinds.*;
 
+/**
+ * Watches registered directories and tells its listeners about the files created, deleted or modified in them.
+ *
+ * A single dispatcher thread takes the signalled keys from the WatchService and hands their events to a fixed pool of
+ * worker threads. All events of one directory go to the same worker, so they are delivered in the order they
+ * happened; events of different directories may be delivered concurrently by different workers. The workers' queues
+ * are bounded, so the dispatcher waits when the listeners fall behind.
+ *
+ * Events are not passed on one at a time. Each worker keeps collecting events until none arrive for a quiet
+ * window, merges them per path with a {@link FileEventCoalescer}, then delivers the burst. {@link BatchFileChangeListener}s
+ * get the whole burst in one call; other listeners get one call per coalesced event. A burst is delivered early if
+ * it grows past {@link #MAX_BATCH} paths or has been collecting for ten quiet windows. Directories that were removed
+ * and created again within a burst are delivered as removed in a burst of their own just before it.
+ *
+ * When a directory's events overflow, the directory is listed again and compared to the children the listeners know
+ * of (see {@link #setKnownChildren(Function)}), and only the differences are sent as ADDED and REMOVED events.
+ * Subdirectories report their own events, so only the direct children are compared, except for new subdirectories
+ * whose whole subtree is sent as added.
+ *
+ * The depth of the worker queues and the latency from dispatch to delivery are measured, see {@link #getQueueDepth()}
+ * and {@link #getAverageDispatchLatency()}.
+ */
 public class WatchThreadPool {
 
     private final WatchService watcher;
-    private final List<FileChangeListener> listeners = Collections.synchronizedList(new LinkedList<>());
-    private final LinkedList<WatchThread> threads = new LinkedList<>();
+    private final List<FileChangeListener> listeners = new CopyOnWriteArrayList<>();
     private final static int PROCESSORS = Runtime.getRuntime().availableProcessors();
-    private final static float CREATE_CHANCE = 0.30f;
-    private final static float MAX_THREADS = PROCESSORS * 2;
-    private final static Map<WatchKey, Path> dirs = Collections.synchronizedMap(new HashMap<>());
+    /** the number of worker threads delivering events */
+    public final static int WORKERS = Math.max(2, PROCESSORS);
+    /** the most events waiting in a worker's queue before the dispatcher blocks */
+    public final static int QUEUE_CAPACITY = 16_384;
+    private final Map<WatchKey, Path> dirs = new ConcurrentHashMap<>();
+    /** the quiet window used when none is given */
+    public final static long DEFAULT_QUIET_MILLIS = 50;
+    /** the most paths in a burst before it is delivered without waiting for the quiet window */
+    public final static int MAX_BATCH = 10_000;
+    private final long quietMillis;
+    private volatile Function<Path, Collection<Path>> knownChildren = dir -> Collections.emptyList();
+    private final Worker[] workers = new Worker[WORKERS];
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
 
     public WatchThreadPool(FileChangeListener listener) throws IOException {
+        this(listener, DEFAULT_QUIET_MILLIS);
+    }
+
+    /**
+     * Creates a WatchThreadPool and starts its threads
+     * @param listener the first listener
+     * @param quietMillis how long no events must arrive for before a burst is delivered
+     * @throws IOException if the WatchService cannot be created
+     */
+    public WatchThreadPool(FileChangeListener listener, long quietMillis) throws IOException {
+        if (quietMillis < 0) throw new IllegalArgumentException("Quiet window cannot be negative");
         watcher = FileSystems.getDefault().newWatchService();
         listeners.add(listener);
+        this.quietMillis = quietMillis;
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+            start(workers[i], "WatchWorker-" + i);
+        }
+        start(this::dispatch, "WatchDispatcher");
     }
 
+    private static void start(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public long getQuietMillis() {
+        return quietMillis;
+    }
+
+    /**
+     * Sets how to find the children of a directory the listeners currently know of. It is used to recover from
+     * overflowed events without rescanning the whole tree.
+     * @param knownChildren returns the known children of a watched directory, and must be thread safe
+     */
+    public void setKnownChildren(Function<Path, Collection<Path>> knownChildren) {
+        if (knownChildren == null) throw new NullPointerException("knownChildren cannot be null");
+        this.knownChildren = knownChildren;
+    }
+
+    /**
+     * Returns the listeners, which may be added to or removed from at any time. A burst being delivered goes to the
+     * listeners there were when its delivery started.
+     * @return the modifiable, thread safe list of listeners
+     */
     public List<FileChangeListener> getListeners() {
         return listeners;
     }
@@ -29,99 +114,237 @@ public class WatchThreadPool {
         try {
             WatchKey dirKey = dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
             dirs.put(dirKey, dir);
-            if (threads.size() < 3 || (threads.size() < MAX_THREADS && Math.random() <= CREATE_CHANCE)) {
-                WatchThread watchThread = new WatchThread();
-                threads.add(watchThread);
-                watchThread.getThread().start();
-            }
-            return dirs.containsValue(dir);
+            return true;
         } catch (IOException e) {
-            System.err.println("Failed to start watchThread " + e.getMessage());
+            IdeMetrics.error("Failed to register " + dir + ": " + e.getMessage());
         }
         return false;
     }
 
     public boolean unregister(Path dir) {
         // slow O(n) implementation as we do not expect to call often
-        for (final WatchKey key : dirs.keySet()) {
-            if (dirs.get(key).equals(dir)) {
-                return dirs.remove(key).equals(dir);
+        for (final Map.Entry<WatchKey, Path> entry : dirs.entrySet()) {
+            if (entry.getValue().equals(dir)) {
+                entry.getKey().cancel();
+                return dirs.remove(entry.getKey()) != null;
             }
         }
         return false;
     }
 
-    private class WatchThread implements Runnable {
+    /**
+     * Returns the number of events dispatched to the workers but not yet delivered to the listeners
+     * @return the total depth of the worker queues
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Worker worker : workers)
+            depth += worker.queue.size();
+        return depth;
+    }
 
-        private volatile boolean isRunning;
-        private final Thread thread;
+    /**
+     * Returns the number of events delivered to the listeners so far
+     * @return the delivered event count, before coalescing
+     */
+    public long getDispatchedCount() {
+        return dispatched.sum();
+    }
+
+    /**
+     * Returns the average time from an event being dispatched to a worker until its burst was delivered. This
+     * includes the quiet window the worker waited for.
+     * @return the average dispatch latency, zero if no events were delivered
+     */
+    public double getAverageDispatchLatency() {
+        final long count = dispatched.sum();
+        return count == 0 ? 0 : latencyNanos.sum() / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Returns the longest time from an event being dispatched to a worker until its burst was delivered
+     * @return the maximum dispatch latency in milliseconds
+     */
+    public double getMaxDispatchLatency() {
+        return maxLatencyNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
 
-        public WatchThread() {
-            thread = new Thread(this);
-            thread.setDaemon(true);
+    /**
+     * Takes the signalled keys and hands their events to the worker of their directory
+     */
+    private void dispatch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException e) {
+                IdeMetrics.error("WatchDispatcher Interrupted: terminating WatchDispatcher");
+                return;
+            } catch (ClosedWatchServiceException e) {
+                IdeMetrics.error("Watch closed, terminating thread");
+                return;
+            }
+            final Path dir = dirs.get(key);
+            final List<WatchEvent<?>> events = key.pollEvents();
+            // returns if the key is not valid
+            if (!key.reset()) {
+                dirs.remove(key);
+                if (dirs.isEmpty()) {
+                    IdeMetrics.error("Last directory removed from watch");
+                }
+            }
+            if (dir == null)
+                continue; // unregistered while signalled
+            final Worker worker = workers[Math.floorMod(dir.hashCode(), workers.length)];
+            try {
+                for (WatchEvent<?> e : events)
+                    worker.queue.put(new Dispatched(dir, e));
+            } catch (InterruptedException e) {
+                IdeMetrics.error("WatchDispatcher Interrupted: terminating WatchDispatcher");
+                return;
+            }
         }
+    }
 
-        public Thread getThread() {
-            return thread;
+    private static class Dispatched {
+        final Path dir;
+        final WatchEvent<?> event;
+        final long time = System.nanoTime();
+
+        Dispatched(Path dir, WatchEvent<?> event) {
+            this.dir = dir;
+            this.event = event;
         }
+    }
+
+    private class Worker implements Runnable {
+
+        private final BlockingQueue<Dispatched> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        private final FileEventCoalescer coalescer = new FileEventCoalescer();
+        private long firstDispatched;
+        private long dispatchedNanos;
+        private int count;
 
         @Override
         public void run() {
-            if (isRunning) throw new IllegalStateException("Reran while already running");
-            isRunning = true;
-            while(isRunning) {
-                WatchKey key;
+            while (true) {
+                // a failing burst is reported and dropped, a dead worker would block the dispatcher on its full queue
                 try {
-                    key = watcher.take();
+                    try {
+                        Dispatched next = queue.take();
+                        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(quietMillis * 10);
+                        while (next != null) {
+                            handle(next);
+                            if (coalescer.size() >= MAX_BATCH || System.nanoTime() >= deadline)
+                                break;
+                            next = queue.poll(quietMillis, TimeUnit.MILLISECONDS);
+                        }
+                    } finally {
+                        flush();
+                    }
                 } catch (InterruptedException e) {
-                    System.err.println("WatchThread Interrupted: terminating WatchThread");
-                    isRunning = false;
-                    return;
-                } catch (ClosedWatchServiceException e) {
-                    System.err.println("Watch closed, terminating thread");
-                    isRunning = false;
+                    IdeMetrics.error("WatchWorker Interrupted: terminating WatchWorker");
                     return;
-                }
-                List<WatchEvent<?>> events = key.pollEvents();
-                for(WatchEvent<?> e : events) {
-                    WatchEvent.Kind<?> type = e.kind();
-                    handle(dirs.get(key), type, e);
-                }
-                // returns if the key is not valid
-                if (!key.reset()) {
-                    dirs.remove(key);
-                    if (dirs.size() < 1) {
-                        System.err.println("Last directory removed from watch");
-                    }
+                } catch (RuntimeException e) {
+                    IdeMetrics.error("WatchWorker failed to handle a burst: " + e);
                 }
             }
         }
 
-        private void handle(Path dir, WatchEvent.Kind<?> type, WatchEvent<?> e) {
+        private void handle(Dispatched dispatched) {
+            if (count++ == 0)
+                firstDispatched = dispatched.time;
+            dispatchedNanos += dispatched.time - firstDispatched;
+            final Path dir = dispatched.dir;
+            final WatchEvent<?> e = dispatched.event;
+            final WatchEvent.Kind<?> type = e.kind();
             if (type == OVERFLOW) {
-                System.err.println("non-fatal OVERFLOW WatchEvent occurred");
+                IdeMetrics.error("non-fatal OVERFLOW WatchEvent occurred: rescanning " + dir);
+                rescan(dir);
             } else {
                 Object context = e.context();
                 if (!(context instanceof Path)) {
-                    System.err.println("Context was not a path: Not handling");
+                    IdeMetrics.error("Context was not a path: Not handling");
                     return;
                 }
                 Path path = dir.resolve((Path)context);
                 if (type == ENTRY_CREATE) {
-                    notifyListeners(path, FileEvent.ADDED);
+                    coalescer.add(path, FileEvent.ADDED);
                 } else if (type == ENTRY_DELETE) {
-                    notifyListeners(path, FileEvent.REMOVED);
+                    coalescer.add(path, FileEvent.REMOVED);
                 } else if (type == ENTRY_MODIFY){
-                    notifyListeners(path, FileEvent.MODIFIED);
+                    coalescer.add(path, FileEvent.MODIFIED);
                 } else {
-                    System.err.println("non-fatal unknown WatchEvent type");
+                    IdeMetrics.error("non-fatal unknown WatchEvent type");
                 }
             }
         }
 
-        private void notifyListeners(Path path, FileEvent e) {
-            for(FileChangeListener listener : listeners) {
-                listener.filesystemChanged(path, e);
+        /**
+         * Lists the directory and adds the differences from the known children to the coalescer
+         */
+        private void rescan(Path dir) {
+            final Set<Path> known = new HashSet<>(knownChildren.apply(dir));
+            try (Stream<Path> children = Files.list(dir)) {
+                children.forEach(child -> {
+                    if (known.remove(child))
+                        return;
+                    coalescer.add(child, FileEvent.ADDED);
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS))
+                        addSubtree(child);
+                });
+            } catch (IOException | UncheckedIOException e) {
+                IdeMetrics.error("Failed to rescan " + dir + ": " + e.getMessage());
+                return;
+            }
+            for (Path removed : known)
+                coalescer.add(removed, FileEvent.REMOVED);
+        }
+
+        private void addSubtree(Path dir) {
+            try (Stream<Path> subtree = Files.walk(dir)) {
+                // walk returns the parents before their children
+                subtree.skip(1).forEach(path -> coalescer.add(path, FileEvent.ADDED));
+            } catch (IOException | UncheckedIOException e) {
+                IdeMetrics.error("Failed to rescan " + dir + ": " + e.getMessage());
+            }
+        }
+
+        private void flush() {
+            if (count > 0) {
+                // latency of every event in the burst, from the sum of their offsets to the first one
+                final long longest = System.nanoTime() - firstDispatched;
+                dispatched.add(count);
+                latencyNanos.add(longest * count - dispatchedNanos);
+                maxLatencyNanos.accumulateAndGet(longest, Math::max);
+                count = 0;
+                dispatchedNanos = 0;
+            }
+            if (coalescer.isEmpty())
+                return;
+            // replaced directories are removed first, so that they are added back with their new content
+            final Map<Path, FileEvent> replaced = coalescer.drainReplaced();
+            if (!replaced.isEmpty())
+                deliver(Collections.unmodifiableMap(replaced));
+            final Map<Path, FileEvent> changes = coalescer.drain();
+            if (!changes.isEmpty())
+                deliver(Collections.unmodifiableMap(changes));
+        }
+
+        private void deliver(Map<Path, FileEvent> changes) {
+            // iterates a snapshot of the listeners, so the workers deliver at the same time
+            for (FileChangeListener listener : listeners) {
+                try {
+                    if (listener instanceof BatchFileChangeListener) {
+                        ((BatchFileChangeListener) listener).filesystemChanged(changes);
+                    } else {
+                        for (Map.Entry<Path, FileEvent> change : changes.entrySet())
+                            listener.filesystemChanged(change.getKey(), change.getValue());
+                    }
+                } catch (RuntimeException e) {
+                    // the other listeners are still told
+                    IdeMetrics.error("Listener failed on " + changes.size() + " changes: " + e);
+                }
             }
         }
     }
@@ -1,18 +1,24 @@
 package com.sdc.three.ide;
 
-import javafx.beans.property.ReadOnlyListWrapper;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+import javafx.collections.ObservableSet;
+import javafx.concurrent.Task;
 import javafx.scene.control.TreeItem;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
-import static java.nio.file.FileVisitResult.CONTINUE;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * The Workspace takes care of file management, including saving and automatically updating for files added to the filesystem
@@ -24,81 +30,438 @@ import static java.nio.file.FileVisitResult.CONTINUE;
  * Since this object takes care of automatically updating files in the provided directories, there is no implicit
  * file adding methods as they are done by simply creating the files as would normally be done.
  *
- * For efficient saving of all changed files, it is recommended that one uses {@link #getPathsToSave()}, then calls
- * {@link #save(Path, String)} for each file.
+ * All changed files are saved at once with {@link #saveAll(Function)}, which writes them in parallel. Every save goes to a
+ * temporary file that is then moved over the file, so a file is never left half written; the watch events caused by the
+ * save itself do not mark the file as modified.
  *
  * Files are added to {@link #pathsToSave} when they are modified only. Newly created files are considered saved. When files
- * are removed from the directory, they are also similarly removed form {@link #pathsToSave}
+ * are removed from the directory, they are also similarly removed form {@link #pathsToSave}. It is a
+ * {@link ConcurrentObservableSet}, so a burst of events marking the same files costs O(1) per event and reaches the UI
+ * as one batch of changes.
+ *
+ * Every item of the tree is a {@link PathTreeItem}, which records if its path is a directory when it is created.
+ *
+ * Every TreeItem is also kept in a concurrent index by its absolute, normalized path, so that {@link #getItem(Path)}
+ * and {@link #getClosestItem(Path)} are hash lookups that take no lock.
+ *
+ * The workspace is scanned in parallel: each directory is listed by its own fork/join task, and the subtrees are
+ * attached to the root once they are all built. Directories are registered with the watch afterwards, all at once.
+ *
+ * A lazy workspace (see {@link #Workspace(File, boolean)}) is not scanned up front. Its directories are
+ * {@link PathTreeItem}s that list their children, and register with the watch, when they are first expanded, so the
+ * memory used grows with what is browsed rather than with the size of the workspace. The tree of a lazy workspace only
+ * holds the loaded directories, and events under directories that were never loaded are ignored.
+ *
+ * A workspace opened with a cache directory (see {@link #Workspace(File, Path)}) keeps a {@link WorkspaceSnapshot} of
+ * its tree there. Reopening it builds the tree from the snapshot, then relists only the directories whose modified time
+ * changed since the snapshot was written. A fresh snapshot is written in the background after every open.
+ *
+ * Filesystem events arrive in coalesced bursts from the {@link WatchThreadPool}. There is no lock over the whole tree:
+ * the children of each directory are guarded by one stripe of a {@link StripedLock}, and an event only holds the lock
+ * of the directory it changes, so bursts in unrelated directories are applied by the watch threads at the same time.
+ * How often a lock had to be waited for is given by {@link #getLockContentions()}. A directory that appears with content
+ * already in it is walked once, watching and adding its whole subtree in one batch. The tree is changed on the watch
+ * threads, so it is never shown as is: a {@link WorkspaceTreeBridge} mirrors it onto the FX thread for the
+ * {@link WorkspaceViewer}.
+ *
+ * Event bursts, saves, lock waits and failures are counted in the {@link IdeMetrics} and recorded as
+ * {@link IdeEvents} for the JDK Flight Recorder.
  *
  * @author Anthony Segedi
  */
-public class Workspace implements Filesystem, FileChangeListener {
+public class Workspace implements Filesystem, BatchFileChangeListener {
 
     private final Path dir;
     private final WatchThreadPool watchPool;
-    private final ObservableList<Path> pathsToSave = FXCollections.synchronizedObservableList(FXCollections.observableList(new LinkedList<>()));
+    private final ConcurrentObservableSet<Path> pathsToSave = new ConcurrentObservableSet<>();
+    private final ObservableSet<Path> readOnlyPathsToSave = FXCollections.unmodifiableObservableSet(pathsToSave);
     private final TreeItem<Path> root;
-    private final LinkedList<FileChangeListener> listeners = new LinkedList<>();
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    private final ConcurrentHashMap<Path, TreeItem<Path>> index = new ConcurrentHashMap<>();
+    private final List<FileChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final StripedLock locks = new StripedLock(LOCK_STRIPES);
+    private static final int LOCK_STRIPES = 64;
+    private static final ForkJoinPool scanPool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private volatile long timeToTreeMillis;
+    private final boolean lazy;
+    private static final int PAGES_IN_FLIGHT = 4;
+    private static final String SAVE_SUFFIX = ".sdc-save";
+    private static final ExecutorService savePool = Executors.newFixedThreadPool(
+            Math.max(4, Runtime.getRuntime().availableProcessors()), runnable -> {
+                final Thread thread = new Thread(runnable, "Saver");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private final ConcurrentHashMap<Path, FileTime> ownWrites = new ConcurrentHashMap<>();
+    private final Path snapshotFile;
+    private final ConcurrentHashMap<Path, WorkspaceSnapshot.Entry> entries;
 
     public Workspace(File dir) throws InvalidFileException, IOException {
+        this(dir, false);
+    }
+
+    /**
+     * Creates a Workspace
+     *
+     * @param dir the root directory of the workspace
+     * @param lazy if directories should only be listed once they are first expanded, rather than scanning the whole
+     *             workspace now
+     * @throws InvalidFileException if dir is not a directory
+     * @throws IOException if the workspace could not be scanned or watched
+     */
+    public Workspace(File dir, boolean lazy) throws InvalidFileException, IOException {
+        this(dir, lazy, null);
+    }
+
+    /**
+     * Creates a Workspace that is reopened from a snapshot of its tree kept in the cache directory. If there is no
+     * usable snapshot, the workspace is scanned as usual and the snapshot is written for the next time.
+     *
+     * @param dir the root directory of the workspace
+     * @param cacheDir the directory holding workspace snapshots, created if needed
+     * @throws InvalidFileException if dir is not a directory
+     * @throws IOException if the workspace could not be scanned or watched
+     */
+    public Workspace(File dir, Path cacheDir) throws InvalidFileException, IOException {
+        this(dir, false, Objects.requireNonNull(cacheDir, "Cache directory cannot be null"));
+    }
+
+    private Workspace(File dir, boolean lazy, Path cacheDir) throws InvalidFileException, IOException {
         super();
         validateWorkspace(dir);
         this.dir = dir.toPath().normalize();
+        this.lazy = lazy;
+        snapshotFile = cacheDir == null ? null : WorkspaceSnapshot.fileFor(cacheDir, this.dir);
+        entries = cacheDir == null ? null : new ConcurrentHashMap<>();
         watchPool = new WatchThreadPool(this);
-        root = new TreeItem<>(this.dir);
-        parseWorkspace();
+        watchPool.setKnownChildren(this::getChildren);
+        if (lazy) {
+            root = new PathTreeItem(this.dir, true, this::load);
+            index.put(key(this.dir), root);
+        } else {
+            root = new PathTreeItem(this.dir, true);
+            if (snapshotFile == null || !openSnapshot())
+                parseWorkspace();
+        }
+        IdeMetrics.get().setWorkspace(this);
+    }
+
+    public boolean isLazy() {
+        return lazy;
     }
 
     @Override
     public void save(Path path, String string) throws IOException {
-        Files.writeString(path, string, StandardOpenOption.TRUNCATE_EXISTING);
+        write(path, string);
         pathsToSave.remove(path);
     }
 
+    /**
+     * Saves files in parallel, each one atomically
+     *
+     * @param files the text to save to each file
+     * @throws IOException if any file failed to save, the failures of other files being suppressed by it. The files
+     *                     that did save stay saved.
+     * @throws InterruptedException if interrupted while waiting for the writes
+     */
+    public void saveAll(Map<Path, ? extends CharSequence> files) throws IOException, InterruptedException {
+        final List<Callable<Path>> writes = new ArrayList<>(files.size());
+        for (Map.Entry<Path, ? extends CharSequence> file : files.entrySet())
+            writes.add(() -> write(file.getKey(), file.getValue()));
+        IOException failure = null;
+        for (Future<Path> write : savePool.invokeAll(writes)) {
+            try {
+                pathsToSave.remove(write.get());
+            } catch (ExecutionException e) {
+                final IOException cause = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                        : new IOException(e.getCause());
+                if (failure == null)
+                    failure = cause;
+                else
+                    failure.addSuppressed(cause);
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The text of every file is taken now, on the calling thread, and then written by {@link #saveAll(Map)}.
+     */
     @Override
-    public ReadOnlyListWrapper<Path> getPathsToSave() {
-        return new ReadOnlyListWrapper<>(pathsToSave);
+    public Task<Void> saveAll(Function<Path, ? extends CharSequence> contents) {
+        final Map<Path, CharSequence> files = new LinkedHashMap<>();
+        for (Path path : pathsToSave) {
+            final CharSequence text = contents.apply(path);
+            if (text != null)
+                files.put(path, text);
+        }
+        final Task<Void> task = new Task<>() {
+            @Override
+            protected Void call() throws Exception {
+                saveAll(files);
+                return null;
+            }
+        };
+        final Thread thread = new Thread(task, "Save all");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Writes a file through a temporary file beside it, which is moved over the file once complete, so that the file
+     * is either the old text or the new text whenever the write is stopped. The watch events of the write are
+     * suppressed: the temporary file never shows in the tree, and the file is not marked as modified.
+     *
+     * @return the path written
+     */
+    private Path write(Path path, CharSequence text) throws IOException {
+        final IdeEvents.Save event = new IdeEvents.Save();
+        event.begin();
+        final long start = System.nanoTime();
+        final Path temp = path.resolveSibling("." + path.getFileName() + "." + UUID.randomUUID() + SAVE_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                final ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(text));
+                event.bytes = bytes.remaining();
+                while (bytes.hasRemaining())
+                    channel.write(bytes);
+                channel.force(false);
+            }
+            try {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(path));
+            } catch (NoSuchFileException | UnsupportedOperationException e) {
+                // a new file, or permissions the filesystem does not have
+            }
+            // the move keeps the modified time, so it is known before the event arrives
+            ownWrites.put(key(path), Files.getLastModifiedTime(temp));
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            ownWrites.remove(key(path));
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        IdeMetrics.get().saved(System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.path = path.toString();
+            event.commit();
+        }
+        return path;
+    }
+
+    /**
+     * Returns if a file is as this workspace last saved it, so that the events of the save are not taken as a change
+     *
+     * @param path the file of an event
+     * @return true if the file still has the modified time of the last save
+     */
+    private boolean isOwnWrite(Path path) {
+        final FileTime written = ownWrites.get(key(path));
+        if (written == null)
+            return false;
+        try {
+            if (written.equals(Files.getLastModifiedTime(path)))
+                return true;
+        } catch (IOException e) {
+            // removed since
+        }
+        ownWrites.remove(key(path), written);
+        return false;
+    }
+
+    private static boolean isSaveTemp(Path path) {
+        final Path name = path.getFileName();
+        return name != null && name.toString().endsWith(SAVE_SUFFIX);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The file is memory mapped and decoded as UTF-8 by a {@link FileLoader}. At most {@value #PAGES_IN_FLIGHT} pages
+     * wait for the FX thread at once, so a slow editor holds the load back rather than filling the heap.
+     */
+    @Override
+    public Task<Void> load(Path path, TextEditor editor) {
+        final FileLoader loader = new FileLoader(path, StandardCharsets.UTF_8);
+        final Task<Void> task = new Task<>() {
+            @Override
+            protected Void call() throws Exception {
+                final Semaphore inFlight = new Semaphore(PAGES_IN_FLIGHT);
+                loader.load((text, first) -> {
+                    inFlight.acquire();
+                    Platform.runLater(() -> {
+                        try {
+                            if (isCancelled())
+                                return;
+                            if (first)
+                                editor.replaceText(text);
+                            else
+                                editor.appendText(text);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                }, this::updateProgress, this::isCancelled);
+                return null;
+            }
+        };
+        final Thread thread = new Thread(task, "Load " + path.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    @Override
+    public ObservableSet<Path> getPathsToSave() {
+        return readOnlyPathsToSave;
     }
 
     @Override
     public void filesystemChanged(Path path, FileEvent event) {
-        TreeItem<Path> item = getClosestItem(path);
-        switch (event) {
-            case MODIFIED:
-                pathsToSave.add(path);
-            case ADDED:
-                lock.writeLock().lock();
-                Path added = addPathTo(item, path);
-                if (added.toFile().isDirectory())
-                    if (!watchPool.register(added))
-                        System.err.println("Failed to register " + added);
-                lock.writeLock().unlock();
-                break;
-            case REMOVED:
-                pathsToSave.remove(path);
-                try {
-                    lock.writeLock().lock();
-                    final TreeItem<Path> toRemove = getItem(path);
-                    final TreeItem<Path> parent = toRemove.getParent();
-                    if (!parent.getChildren().remove(toRemove)) {
-                        System.err.printf("WARNING: Failed to remove %s from %s", item.getValue(), parent.getValue());
-                    }
-                    if (path.toFile().isDirectory())
-                        watchPool.unregister(path);
-                } catch (NoSuchElementException e) {
-                    System.err.printf("WARNING: Failed to remove %s, as %<s did not exist", item.getValue());
-                }
-                lock.writeLock().unlock();
-                break;
+        filesystemChanged(Collections.singletonMap(path, event));
+    }
+
+    @Override
+    public void filesystemChanged(Map<Path, FileEvent> changes) {
+        if (changes.keySet().stream().anyMatch(Workspace::isSaveTemp)) {
+            changes = new LinkedHashMap<>(changes);
+            changes.keySet().removeIf(Workspace::isSaveTemp);
+            if (changes.isEmpty())
+                return;
         }
+        final IdeEvents.WatchBurst event = new IdeEvents.WatchBurst();
+        event.begin();
+        for (Map.Entry<Path, FileEvent> change : changes.entrySet())
+            apply(change.getKey(), change.getValue());
+        event.events = changes.size();
+        event.commit();
+        IdeMetrics.get().watchBurst(changes.size());
         if (!listeners.isEmpty()) {
             for (FileChangeListener listener : listeners) {
-                listener.filesystemChanged(path, event);
+                if (listener instanceof BatchFileChangeListener) {
+                    ((BatchFileChangeListener) listener).filesystemChanged(changes);
+                } else {
+                    for (Map.Entry<Path, FileEvent> change : changes.entrySet())
+                        listener.filesystemChanged(change.getKey(), change.getValue());
+                }
             }
         }
     }
 
+    /**
+     * Applies one event to the tree, holding the lock of one directory at a time
+     */
+    private void apply(Path path, FileEvent event) {
+        if (event == FileEvent.REMOVED) {
+            pathsToSave.remove(path);
+            remove(path);
+            return;
+        }
+        final boolean directory = Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+        final TreeItem<Path> known = index.get(key(path));
+        if (known instanceof PathTreeItem && ((PathTreeItem) known).isDirectory() != directory) {
+            // a file replaced by a directory or the other way round, its old item goes and the new one is added
+            pathsToSave.remove(path);
+            remove(path);
+        } else if (known != null) {
+            // modified, or moved over a file of the tree as saves do
+            if (!directory && !isOwnWrite(path))
+                pathsToSave.add(path);
+            return;
+        }
+        if (event == FileEvent.MODIFIED && !directory && !isOwnWrite(path))
+            pathsToSave.add(path);
+        TreeItem<Path> item;
+        int stripe;
+        long locked;
+        while (true) {
+            item = getClosestItem(path);
+            stripe = locks.stripe(key(item.getValue()));
+            locked = locks.lockWrite(stripe);
+            if (getClosestItem(path) == item)
+                break;
+            locks.unlockWrite(stripe, locked); // added to or removed meanwhile
+        }
+        final Path added;
+        try {
+            if (item.getValue().equals(path))
+                return; // added by another event meanwhile
+            if (lazy && !isLoadedParent(item, path)) {
+                return; // unloaded directories list their children once expanded
+            } else if (lazy) {
+                added = addPathTo(item, path);
+            } else {
+                // only the first missing directory is added, the walk below it finds the path
+                added = addPathTo(item, item.getValue().resolve(item.getValue().relativize(path).getName(0)));
+            }
+        } finally {
+            locks.unlockWrite(stripe, locked);
+        }
+        if (!lazy && Files.isDirectory(added, LinkOption.NOFOLLOW_LINKS))
+            walk(added);
+    }
+
+    /**
+     * Adds everything below a directory that was just added to the tree. The directory may have been created with its
+     * content, as by an unzip, a clone or a move, and nothing created before it was watched has an event. Every
+     * directory of the subtree is watched before it is listed, and the whole subtree is added in one batch, under the
+     * lock of the directory, so events from inside it wait until it is in the tree.
+     *
+     * @param directory the directory added
+     */
+    private void walk(Path directory) {
+        final TreeItem<Path> item = index.get(key(directory));
+        if (item == null)
+            return;
+        final Queue<TreeItem<Path>> found = new ConcurrentLinkedQueue<>();
+        final ScanTask task = new ScanTask(directory, found);
+        final int stripe = locks.stripe(key(directory));
+        final long locked = locks.lockWrite(stripe);
+        try {
+            if (index.get(key(directory)) != item)
+                return; // removed meanwhile
+            task.record(directory);
+            final List<TreeItem<Path>> children = scanPool.invoke(task);
+            if (children == null)
+                return; // removed meanwhile, its event follows
+            item.getChildren().addAll(children);
+            for (TreeItem<Path> child : found)
+                index.put(key(child.getValue()), child);
+        } finally {
+            locks.unlockWrite(stripe, locked);
+        }
+    }
+
+    private void remove(Path path) {
+        final TreeItem<Path> toRemove = index.get(key(path));
+        final TreeItem<Path> parent = key(path).getParent() == null ? null : index.get(key(path).getParent());
+        if (toRemove == null || parent == null)
+            return; // already gone, as the children of a removed directory are, or never added
+        final int stripe = locks.stripe(key(parent.getValue()));
+        final long locked = locks.lockWrite(stripe);
+        try {
+            if (!parent.getChildren().remove(toRemove))
+                return; // removed by another event meanwhile
+        } finally {
+            locks.unlockWrite(stripe, locked);
+        }
+        removeFromIndex(toRemove);
+        if (toRemove instanceof PathTreeItem && ((PathTreeItem) toRemove).isDirectory())
+            watchPool.unregister(path);
+    }
+
+    /**
+     * Returns the listeners told about every burst after it is applied to the tree. They may be added to or removed
+     * from at any time, from any thread; a burst goes to the listeners there were when its delivery started.
+     *
+     * @return the modifiable, thread safe list of listeners
+     */
     public List<FileChangeListener> getListeners() {
         return listeners;
     }
@@ -107,6 +470,12 @@ public class Workspace implements Filesystem, FileChangeListener {
         return dir.toFile();
     }
 
+    /**
+     * Returns the root of the tree. The tree changes on the watch threads, so show it through a
+     * {@link WorkspaceTreeBridge} rather than putting it in a scene.
+     *
+     * @return the item of the root directory
+     */
     public TreeItem<Path> getRoot() {
         return root;
     }
@@ -114,30 +483,68 @@ public class Workspace implements Filesystem, FileChangeListener {
     /**
      * Returns the TreeItem of a given Path, or if it is not
      * contained in the Tree, then it returns the closest item
-     * it can. This is synchronized with the ReadWriteLock for
-     * thread safe use
+     * it can. Items are looked up in a concurrent index, so
+     * this is thread safe without taking the lock
      * 
      * @param path The path to get the item of
      * @return The closest item, at the minimum the root of the tree
      */
     public TreeItem<Path> getClosestItem(Path path) {
-        Path search = dir.toAbsolutePath().relativize(path.toAbsolutePath());
-        TreeItem<Path> item = root;
-        for (int i = 0; i < search.getNameCount(); i++) {
-            Path name = search.getName(i);
-            if (name.toString().isEmpty())
+        final Path rootKey = key(dir);
+        for (Path search = key(path); search != null && search.startsWith(rootKey); search = search.getParent()) {
+            final TreeItem<Path> item = index.get(search);
+            if (item != null)
                 return item;
-            lock.readLock().lock();
-            for (TreeItem<Path> child : item.getChildren()) {
-                Path childName = child.getValue().getFileName();
-                if (childName.equals(name)) {
-                    item = child;
-                    break;
-                }
-            }
-            lock.readLock().unlock();
         }
-        return item;
+        return root;
+    }
+
+    /**
+     * Returns the paths of the children of a directory in the tree. They are read under the lock of the directory, so
+     * this is thread safe
+     *
+     * @param dir the directory to get the children of
+     * @return the paths of the children, empty if the directory is not in the tree
+     */
+    public List<Path> getChildren(Path dir) {
+        final List<Path> children = new ArrayList<>();
+        final TreeItem<Path> item = getClosestItem(dir);
+        if (!item.getValue().equals(dir))
+            return children;
+        final int stripe = locks.stripe(key(dir));
+        final long locked = locks.lockRead(stripe);
+        try {
+            if (item instanceof PathTreeItem && !((PathTreeItem) item).isLoaded())
+                return children; // loading under the read lock would deadlock
+            for (TreeItem<Path> child : item.getChildren())
+                children.add(child.getValue());
+            return children;
+        } finally {
+            locks.unlockRead(stripe, locked);
+        }
+    }
+
+    /**
+     * Returns the items of the children of a directory in the tree, listing them first if the directory is lazy and
+     * has not been loaded. The items are copied under the lock of the directory, so the list does not change with the
+     * tree.
+     *
+     * @param dir the directory to get the children of
+     * @return the children, empty if the directory is not in the tree
+     */
+    List<TreeItem<Path>> getChildItems(Path dir) {
+        final TreeItem<Path> item = index.get(key(dir));
+        if (item == null)
+            return new ArrayList<>();
+        if (item instanceof PathTreeItem && !((PathTreeItem) item).isLoaded())
+            item.getChildren(); // loads under the write lock, so not while holding the read lock
+        final int stripe = locks.stripe(key(dir));
+        final long locked = locks.lockRead(stripe);
+        try {
+            return new ArrayList<>(item.getChildren());
+        } finally {
+            locks.unlockRead(stripe, locked);
+        }
     }
 
     /**
@@ -154,21 +561,98 @@ public class Workspace implements Filesystem, FileChangeListener {
         return item;
     }
 
+    private static boolean isLoadedParent(TreeItem<Path> item, Path path) {
+        return key(item.getValue()).equals(key(path).getParent())
+                && (!(item instanceof PathTreeItem) || ((PathTreeItem) item).isLoaded());
+    }
+
+    /**
+     * Adds a path below an item, along with any of its parent directories missing from the tree. The new items are
+     * linked to each other before they are attached, so only the lock of the item is needed.
+     */
     private Path addPathTo(TreeItem<Path> item, Path path) {
         // lock should be held before entering here!
-        if (!lock.writeLock().isHeldByCurrentThread())
-            throw new IllegalStateException("Current thread does not hold the writeLock!");
+        if (!locks.isWriteLockedByCurrentThread(key(item.getValue())))
+            throw new IllegalStateException("Current thread does not hold the lock of " + item.getValue());
         if (item.getValue().equals(path)) {
-            System.err.println("Path already exists in tree: " + path);
+            IdeMetrics.error("Path already exists in tree: " + path);
             return path;
         }
-        Path toAdd = item.getValue().relativize(path);
-        for (Path p : toAdd) {
-            TreeItem<Path> next = new TreeItem<>(item.getValue().resolve(p));
-            item.getChildren().add(next);
-            item = next;
+        final List<TreeItem<Path>> added = new ArrayList<>();
+        TreeItem<Path> last = item;
+        for (Path p : item.getValue().relativize(path)) {
+            final Path nextPath = last.getValue().resolve(p);
+            // every path but the last is one of its parent directories
+            final boolean directory = !nextPath.equals(path) || Files.isDirectory(nextPath, LinkOption.NOFOLLOW_LINKS);
+            final TreeItem<Path> next = lazy ? newLazyItem(nextPath, directory) : new PathTreeItem(nextPath, directory);
+            if (last != item)
+                last.getChildren().add(next);
+            added.add(next);
+            last = next;
+        }
+        item.getChildren().add(added.get(0));
+        for (TreeItem<Path> next : added)
+            index.put(key(next.getValue()), next);
+        return last.getValue();
+    }
+
+    /**
+     * Drops a removed item and everything below it from the index, from the top down so that a path below it is never
+     * found without its parent. Only the lock of one directory is held at a time.
+     */
+    private void removeFromIndex(TreeItem<Path> item) {
+        final List<TreeItem<Path>> children;
+        final int stripe = locks.stripe(key(item.getValue()));
+        final long locked = locks.lockWrite(stripe);
+        try {
+            index.remove(key(item.getValue()), item);
+            if (entries != null)
+                entries.remove(key(item.getValue()));
+            if (item instanceof PathTreeItem && !((PathTreeItem) item).isLoaded())
+                return; // nothing below was indexed
+            children = new ArrayList<>(item.getChildren());
+        } finally {
+            locks.unlockWrite(stripe, locked);
+        }
+        for (TreeItem<Path> child : children)
+            removeFromIndex(child);
+    }
+
+    private PathTreeItem newLazyItem(Path path, boolean directory) {
+        return new PathTreeItem(path, directory, this::load);
+    }
+
+    /**
+     * Lists the children of a lazy directory and starts watching it
+     *
+     * @param item the directory being expanded for the first time
+     */
+    private void load(PathTreeItem item) {
+        final Path directory = item.getValue();
+        final List<TreeItem<Path>> children = new ArrayList<>();
+        final int stripe = locks.stripe(key(directory));
+        final long locked = locks.lockWrite(stripe);
+        try {
+            // watch before listing, so no change between the two is missed
+            if (!watchPool.register(directory))
+                IdeMetrics.error("Failed to register " + directory);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    final PathTreeItem child = newLazyItem(path, Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS));
+                    children.add(child);
+                    index.put(key(path), child);
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                IdeMetrics.error("Failed to list " + directory + ": " + e.getMessage());
+            }
+            item.getChildren().setAll(children);
+        } finally {
+            locks.unlockWrite(stripe, locked);
         }
-        return item.getValue();
+    }
+
+    private static Path key(Path path) {
+        return path.toAbsolutePath().normalize();
     }
 
     private void validateWorkspace(File workspace) throws InvalidFileException {
@@ -179,59 +663,351 @@ public class Workspace implements Filesystem, FileChangeListener {
     }
 
     private void parseWorkspace() throws IOException {
-        WorkspaceVisitor visitor = new WorkspaceVisitor(root);
-        visitor.buildTree();
+        final long start = System.nanoTime();
+        // hold lock while building the tree so that no changes are interfered with.
+        locks.lockAll();
+        try {
+            index.clear();
+            index.put(key(root.getValue()), root);
+            if (entries != null)
+                entries.clear();
+            final List<TreeItem<Path>> children = scanPool.invoke(new ScanTask(dir, null));
+            if (children == null)
+                throw new IOException("Failed to list the workspace " + dir);
+            root.getChildren().setAll(children); // reset root if it has changes
+        } finally {
+            locks.unlockAll();
+        }
+        timeToTreeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        writeSnapshot();
     }
 
-    private class WorkspaceVisitor extends SimpleFileVisitor<Path> {
+    /**
+     * Builds the tree from the snapshot in the cache directory, then relists the directories that were modified since
+     * it was written.
+     *
+     * @return false if there is no usable snapshot, leaving the tree empty
+     */
+    private boolean openSnapshot() {
+        final long start = System.nanoTime();
+        final List<WorkspaceSnapshot.Entry> snapshot;
+        try {
+            snapshot = WorkspaceSnapshot.read(snapshotFile, dir);
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            IdeMetrics.error("Ignoring workspace snapshot: " + e.getMessage());
+            return false;
+        }
+        if (snapshot.isEmpty() || !snapshot.get(0).path.isEmpty())
+            return false;
+        final List<Path> dirs = new ArrayList<>();
+        final Set<Path> unresolved = new HashSet<>();
+        locks.lockAll();
+        try {
+            index.clear();
+            entries.clear();
+            index.put(key(dir), root);
+            entries.put(key(dir), snapshot.get(0));
+            dirs.add(dir);
+            // the entries are in pre-order, so the directories an entry may be in form a stack. Children are attached
+            // when their directory is popped, deepest first, so that no change event walks up the tree.
+            final Deque<SnapshotDirectory> open = new ArrayDeque<>();
+            open.push(new SnapshotDirectory("", root));
+            for (WorkspaceSnapshot.Entry entry : snapshot.subList(1, snapshot.size())) {
+                while (open.size() > 1 && !entry.path.startsWith(open.peek().prefix))
+                    open.pop().attach();
+                final SnapshotDirectory parent = open.peek();
+                if (parent.item == null)
+                    continue; // below an unresolved directory
+                final Path path;
+                try {
+                    path = parent.item.getValue().resolve(entry.path.substring(parent.prefix.length()));
+                } catch (InvalidPathException e) {
+                    // a name the platform charset cannot round trip, so relist the directory it was in
+                    unresolved.add(parent.item.getValue());
+                    if (entry.directory)
+                        open.push(new SnapshotDirectory(entry.path + '/', null));
+                    continue;
+                }
+                final TreeItem<Path> item = new PathTreeItem(path, entry.directory);
+                parent.children.add(item);
+                final Path key = key(path);
+                index.put(key, item);
+                entries.put(key, entry);
+                if (entry.directory) {
+                    open.push(new SnapshotDirectory(entry.path + '/', item));
+                    dirs.add(path);
+                }
+            }
+            while (!open.isEmpty())
+                open.pop().attach();
+            // watch and stat every directory in parallel, but relist the changed ones in pre-order so that a removed
+            // directory is dropped with its parent before it would be visited itself
+            final List<Path> changed = scanPool.submit(() -> dirs.parallelStream()
+                    .filter(directory -> isModifiedSinceSnapshot(directory) || unresolved.contains(directory))
+                    .collect(Collectors.toList())).join();
+            for (Path directory : changed)
+                reconcile(directory);
+        } finally {
+            locks.unlockAll();
+        }
+        timeToTreeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        writeSnapshot();
+        return true;
+    }
 
-        final LinkedList<TreeItem<Path>> stack;
-        final TreeItem<Path> root;
-        TreeItem<Path> current;
+    /**
+     * Watches a directory of the snapshot, then tells if it was modified since the snapshot was written. It is watched
+     * first, so that a change made after the stat has an event.
+     */
+    private boolean isModifiedSinceSnapshot(Path directory) {
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS))
+            return true; // removed, its parent drops it
+        if (!watchPool.register(directory))
+            IdeMetrics.error("Failed to register " + directory);
+        try {
+            final long modified = Files.getLastModifiedTime(directory, LinkOption.NOFOLLOW_LINKS).toMillis();
+            return modified != entries.get(key(directory)).modified;
+        } catch (IOException e) {
+            return true; // removed, or no longer readable
+        }
+    }
 
-        public WorkspaceVisitor(TreeItem<Path> root) {
-            this.root = root;
-            stack = new LinkedList<>();
+    /**
+     * Brings the children of a directory from the snapshot in line with the filesystem. New subdirectories are scanned.
+     * Every lock must be held, and the directory must already be watched.
+     *
+     * @param directory a directory modified since the snapshot was written
+     */
+    private void reconcile(Path directory) {
+        final TreeItem<Path> item = index.get(key(directory));
+        if (item == null)
+            return; // removed along with its parent
+        final long modified;
+        final Map<Path, TreeItem<Path>> known = new HashMap<>();
+        for (TreeItem<Path> child : item.getChildren())
+            known.put(child.getValue(), child);
+        final List<TreeItem<Path>> added = new ArrayList<>();
+        try {
+            // stat before listing, so that a change made during the listing is seen on the next open
+            modified = Files.getLastModifiedTime(directory, LinkOption.NOFOLLOW_LINKS).toMillis();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    if (known.remove(path) != null)
+                        continue;
+                    final ScanTask subtask = new ScanTask(path, null);
+                    final boolean isDirectory = subtask.record(path);
+                    final TreeItem<Path> child = new PathTreeItem(path, isDirectory);
+                    if (isDirectory) {
+                        final List<TreeItem<Path>> subtree = scanPool.invoke(subtask);
+                        if (subtree != null)
+                            child.getChildren().setAll(subtree);
+                    }
+                    index.put(key(path), child);
+                    added.add(child);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            return; // removed, its parent drops it
         }
+        for (TreeItem<Path> removed : known.values()) {
+            item.getChildren().remove(removed);
+            removeFromIndex(removed);
+        }
+        item.getChildren().addAll(added);
+        entries.put(key(directory), new WorkspaceSnapshot.Entry(WorkspaceSnapshot.relative(dir, directory), true,
+                0, modified));
+    }
+
+    /**
+     * Writes the current tree to the snapshot in the background, if the workspace has a cache directory
+     */
+    private void writeSnapshot() {
+        if (snapshotFile == null)
+            return;
+        final Thread writer = new Thread(() -> {
+            final List<WorkspaceSnapshot.Entry> snapshot = new ArrayList<>(index.size());
+            final Deque<TreeItem<Path>> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                final TreeItem<Path> item = stack.pop();
+                final WorkspaceSnapshot.Entry entry = entries.get(key(item.getValue()));
+                if (entry == null)
+                    continue; // not recorded, so neither are its children
+                snapshot.add(entry);
+                // each directory is read under its own lock, so events elsewhere carry on meanwhile
+                final List<TreeItem<Path>> children;
+                final int stripe = locks.stripe(key(item.getValue()));
+                final long locked = locks.lockRead(stripe);
+                try {
+                    children = new ArrayList<>(item.getChildren());
+                } finally {
+                    locks.unlockRead(stripe, locked);
+                }
+                for (int i = children.size() - 1; i >= 0; i--)
+                    stack.push(children.get(i));
+            }
+            try {
+                WorkspaceSnapshot.write(snapshotFile, dir, snapshot);
+            } catch (IOException e) {
+                IdeMetrics.error("Failed to write the workspace snapshot: " + e.getMessage());
+            }
+        }, "WorkspaceSnapshotWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Returns how many times a thread had to wait for the lock of a directory another thread held
+     *
+     * @return the number of contended acquisitions since the workspace was opened
+     */
+    public long getLockContentions() {
+        return locks.getContendedCount();
+    }
+
+    /**
+     * Returns the total time threads spent waiting for the locks of directories
+     *
+     * @return the time waited in milliseconds
+     */
+    public long getLockWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(locks.getWaitNanos());
+    }
 
-        public void buildTree() throws IOException {
-            stack.clear();
-            current = null;
-            // hold lock while building the tree so that no changes are interfered with.
-            lock.writeLock().lock();
-            root.getChildren().clear(); // reset root if it has changes
-            Files.walkFileTree(dir, this);
-            lock.writeLock().unlock();
+    /**
+     * Returns the average time the lock of a directory was held for
+     *
+     * @return the average hold time in microseconds
+     */
+    public double getAverageLockHoldMicros() {
+        return locks.getAverageHoldNanos() / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the number of items in the tree, as indexed
+     */
+    int getTreeSize() {
+        return index.size();
+    }
+
+    WatchThreadPool getWatchPool() {
+        return watchPool;
+    }
+
+    /**
+     * Returns how long the last scan of the workspace took to build a usable tree, including the time taken to
+     * register the directories with the watch.
+     *
+     * @return the time to the first usable tree in milliseconds
+     */
+    public long getTimeToTreeMillis() {
+        return timeToTreeMillis;
+    }
+
+    /**
+     * A directory of the snapshot whose children are still being read
+     */
+    private static class SnapshotDirectory {
+
+        /** the relative path of the directory followed by '/', or empty for the root */
+        final String prefix;
+        /** null if the path of the directory could not be resolved */
+        final TreeItem<Path> item;
+        final List<TreeItem<Path>> children = new ArrayList<>();
+
+        SnapshotDirectory(String prefix, TreeItem<Path> item) {
+            this.prefix = prefix;
+            this.item = item;
         }
 
-        @Override
-        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-            stack.push(current);
-            current = current == null ? root : new TreeItem<>(dir);
-            return CONTINUE;
+        void attach() {
+            if (item != null)
+                item.getChildren().setAll(children);
         }
+    }
 
-        @Override
-        public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
-            addToCurrent(new TreeItem<>(path));
-            return CONTINUE;
+    /**
+     * Lists one directory, forking a task for each subdirectory. Every directory is watched before it is listed, so no
+     * change between the two is missed. The subtrees are built detached from the tree, and are only attached to the
+     * root once the whole scan is done.
+     */
+    @SuppressWarnings("serial") // never serialized, it only runs on the scan pool and builds the tree of its workspace
+    private class ScanTask extends RecursiveTask<List<TreeItem<Path>>> {
+
+        private final Path directory;
+        private final Queue<TreeItem<Path>> found;
+
+        /**
+         * Creates a ScanTask
+         * @param directory the directory to list
+         * @param found if not null, the items are added here to be indexed later rather than indexed straight away
+         */
+        ScanTask(Path directory, Queue<TreeItem<Path>> found) {
+            this.directory = directory;
+            this.found = found;
         }
 
+        /**
+         * @return the children of the directory, or null if it could not be listed
+         */
         @Override
-        public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
-            TreeItem<Path> old = current;
-            current = stack.pop();
-            if (current != null) {
-                addToCurrent(old);
-                // register the directory with the watch
-                watchPool.register(dir);
-                // qualified this statement!
+        protected List<TreeItem<Path>> compute() {
+            final List<TreeItem<Path>> children = new ArrayList<>();
+            final List<ScanTask> subtasks = new ArrayList<>();
+            final List<TreeItem<Path>> subdirectories = new ArrayList<>();
+            if (entries != null && directory.equals(dir))
+                record(directory);
+            if (!watchPool.register(directory))
+                IdeMetrics.error("Failed to register " + directory);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    final boolean directory = record(path);
+                    final TreeItem<Path> item = new PathTreeItem(path, directory);
+                    children.add(item);
+                    if (found != null)
+                        found.add(item);
+                    else
+                        index.put(key(path), item);
+                    if (directory) {
+                        final ScanTask subtask = new ScanTask(path, found);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                        subdirectories.add(item);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                IdeMetrics.error("Failed to list " + directory + ": " + e.getMessage());
+                return null;
             }
-            return CONTINUE;
+            for (int i = 0; i < subtasks.size(); i++) {
+                final List<TreeItem<Path>> subtree = subtasks.get(i).join();
+                if (subtree != null)
+                    subdirectories.get(i).getChildren().setAll(subtree);
+            }
+            return children;
         }
 
-        private void addToCurrent(TreeItem<Path> item) {
-            current.getChildren().add(item);
+        /**
+         * Reads the attributes of a path, recording its entry for the snapshot if there is one
+         *
+         * @param path the path to read
+         * @return if the path is a directory, not following links
+         */
+        boolean record(Path path) {
+            if (entries == null)
+                return Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+            try {
+                final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                entries.put(key(path), new WorkspaceSnapshot.Entry(WorkspaceSnapshot.relative(dir, path),
+                        attributes.isDirectory(), attributes.isDirectory() ? 0 : attributes.size(),
+                        attributes.lastModifiedTime().toMillis()));
+                return attributes.isDirectory();
+            } catch (IOException e) {
+                return false;
+            }
         }
     }
 }
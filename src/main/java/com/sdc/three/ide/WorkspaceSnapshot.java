@@ -0,0 +1,149 @@
+package com.sdc.three.ide;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A compact binary record of a workspace tree, so that reopening a workspace does not need to walk it again.
+ *
+ * The file holds a header (magic number, version, root path and entry count) followed by one entry per path in
+ * pre-order, parents before their children: the path relative to the root with '/' separators, a directory flag,
+ * the size and the last modified time. It is read through a memory mapped buffer.
+ *
+ * @see Workspace#Workspace(File, Path)
+ */
+class WorkspaceSnapshot {
+
+    private static final int MAGIC = 0x53444353; // SDCS
+    private static final int VERSION = 1;
+    /** the length of a path, the directory flag, the size and the modified time */
+    private static final int ENTRY_MIN_BYTES = Integer.BYTES + 1 + Long.BYTES * 2;
+
+    /**
+     * The recorded state of one path
+     */
+    static class Entry {
+        /** relative to the root with '/' separators, empty for the root itself */
+        final String path;
+        final boolean directory;
+        final long size;
+        final long modified;
+
+        Entry(String path, boolean directory, long size, long modified) {
+            this.path = path;
+            this.directory = directory;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    private WorkspaceSnapshot() {
+    }
+
+    /**
+     * Returns the snapshot file of a workspace in the cache directory
+     *
+     * @param cacheDir the directory holding snapshots
+     * @param root the root of the workspace
+     * @return the snapshot file, named after the absolute path of the root
+     */
+    static Path fileFor(Path cacheDir, Path root) {
+        final byte[] name = root.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8);
+        return cacheDir.resolve(UUID.nameUUIDFromBytes(name) + ".snapshot");
+    }
+
+    /**
+     * Returns the relative path of an entry
+     *
+     * @param root the root of the workspace
+     * @param path a path in the workspace
+     * @return the path relative to the root with '/' separators
+     */
+    static String relative(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Reads a snapshot
+     *
+     * @param file the snapshot file
+     * @param root the root of the workspace the snapshot must be of
+     * @return the entries in pre-order, the root first
+     * @throws IOException if the file cannot be read, is not a snapshot or is of a different root
+     */
+    static List<Entry> read(Path file, Path root) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                throw new IOException("Not a workspace snapshot: " + file);
+            if (!readString(buffer).equals(root.toAbsolutePath().normalize().toString()))
+                throw new IOException("Snapshot is of another workspace: " + file);
+            final int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / ENTRY_MIN_BYTES)
+                throw new IOException("Corrupt workspace snapshot, " + count + " entries: " + file);
+            final List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final String path = readString(buffer);
+                final boolean directory = buffer.get() != 0;
+                entries.add(new Entry(path, directory, buffer.getLong(), buffer.getLong()));
+            }
+            return entries;
+        } catch (RuntimeException e) {
+            // buffer underflow or a corrupt length
+            throw new IOException("Corrupt workspace snapshot: " + file, e);
+        }
+    }
+
+    /**
+     * Writes a snapshot, replacing the old one atomically
+     *
+     * @param file the snapshot file
+     * @param root the root of the workspace
+     * @param entries the entries in pre-order, the root first
+     * @throws IOException if writing fails
+     */
+    static void write(Path file, Path root, List<Entry> entries) throws IOException {
+        Files.createDirectories(file.getParent());
+        final Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, root.toAbsolutePath().normalize().toString());
+                out.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    writeString(out, entry.path);
+                    out.writeByte(entry.directory ? 1 : 0);
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.modified);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private static String readString(MappedByteBuffer buffer) throws IOException {
+        final int length = buffer.getInt();
+        // checked before allocating, a corrupt length could otherwise run out of memory
+        if (length < 0 || length > buffer.remaining())
+            throw new IOException("Corrupt string length " + length);
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
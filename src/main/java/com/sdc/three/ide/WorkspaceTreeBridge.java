@@ -0,0 +1,239 @@
+package com.sdc.three.ide;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeItem;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mirrors the tree of a {@link Workspace} onto the FX thread, so that it can be shown while filesystem events change it
+ * on the watch threads.
+ *
+ * The bridge keeps a tree of its own, holding only the directories that have been expanded; the rest are listed from
+ * the workspace when they are first expanded. A burst of events only marks the directories it changed as dirty, from
+ * whichever thread it arrives on. The dirty directories are then brought up to date with the workspace on the FX
+ * thread, at most once per pulse and with at most {@value #MAX_CHANGES_PER_PULSE} items added or removed per pulse,
+ * so that a checkout of thousands of files is shown over several frames rather than stalling one. All the changes to
+ * a directory in a pulse are made to its children at once.
+ *
+ * If the FX toolkit is not running, the changes are made on a single background thread shared by every bridge, so that
+ * the batches of the watch threads are still applied one at a time.
+ *
+ * @see WorkspaceViewer#setWorkspace(Workspace)
+ */
+class WorkspaceTreeBridge implements BatchFileChangeListener {
+
+    static final int MAX_CHANGES_PER_PULSE = 2_000;
+    private static final ExecutorService fallback = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "WorkspaceTreeBridge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Workspace workspace;
+    private final Executor pulse;
+    private final PathTreeItem root;
+    // the directories of the workspace that changed since they were last brought up to date
+    private final Set<Path> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // the items of this tree by the key of their path. Changed by the thread that applies changes, and by the thread
+    // expanding a directory, which are only the same once the FX toolkit is running.
+    private final Map<Path, PathTreeItem> items = new ConcurrentHashMap<>();
+    private volatile long pulses;
+
+    /**
+     * Creates a WorkspaceTreeBridge that listens to the workspace until {@link #detach()} is called
+     * @param workspace the workspace to mirror
+     */
+    WorkspaceTreeBridge(Workspace workspace) {
+        this(workspace, WorkspaceTreeBridge::nextPulse);
+    }
+
+    /**
+     * Creates a WorkspaceTreeBridge
+     * @param workspace the workspace to mirror
+     * @param pulse runs each batch of changes to the tree
+     */
+    WorkspaceTreeBridge(Workspace workspace, Executor pulse) {
+        this.workspace = workspace;
+        this.pulse = pulse;
+        root = newItem(workspace.getRoot());
+        workspace.getListeners().add(this);
+    }
+
+    /**
+     * Returns the root of the mirrored tree, which is only changed on the FX thread
+     * @return the item of the root directory of the workspace
+     */
+    PathTreeItem getRoot() {
+        return root;
+    }
+
+    /**
+     * Stops following the changes of the workspace
+     */
+    void detach() {
+        workspace.getListeners().remove(this);
+    }
+
+    /**
+     * @return the number of batches of changes applied
+     */
+    long getPulseCount() {
+        return pulses;
+    }
+
+    @Override
+    public void filesystemChanged(Path path, FileEvent event) {
+        markDirty(path);
+        schedule();
+    }
+
+    @Override
+    public void filesystemChanged(Map<Path, FileEvent> changes) {
+        for (Path path : changes.keySet())
+            markDirty(path);
+        schedule();
+    }
+
+    private void markDirty(Path path) {
+        final Path parent = key(path).getParent();
+        if (parent != null)
+            dirty.add(parent);
+    }
+
+    private void schedule() {
+        if (!dirty.isEmpty() && scheduled.compareAndSet(false, true))
+            pulse.execute(this::flush);
+    }
+
+    /**
+     * Brings dirty directories up to date until the changes of this pulse are used up
+     */
+    private void flush() {
+        int budget = MAX_CHANGES_PER_PULSE;
+        final Iterator<Path> iterator = dirty.iterator();
+        while (budget > 0 && iterator.hasNext()) {
+            final Path directory = iterator.next();
+            iterator.remove(); // before reading the workspace, so a change made meanwhile marks it again
+            budget = update(directory, budget);
+        }
+        pulses++;
+        scheduled.set(false);
+        schedule(); // the rest waits for the next pulse
+    }
+
+    /**
+     * Makes the children of a directory those of the workspace, if the directory has been expanded
+     *
+     * @param directory the key of the directory
+     * @param budget the number of items that may be added or removed
+     * @return the budget left, 0 if the directory is still dirty
+     */
+    private int update(Path directory, int budget) {
+        final PathTreeItem item = items.get(directory);
+        if (item == null || !item.isLoaded())
+            return budget; // not shown, and listed afresh once expanded
+        final ObservableList<TreeItem<Path>> children = item.getChildren();
+        final Map<Path, TreeItem<Path>> old = new HashMap<>();
+        for (TreeItem<Path> child : children)
+            old.put(key(child.getValue()), child);
+        final List<TreeItem<Path>> updated = new ArrayList<>();
+        final List<TreeItem<Path>> added = new ArrayList<>();
+        boolean complete = true;
+        for (TreeItem<Path> child : workspace.getChildItems(item.getValue())) {
+            TreeItem<Path> mirror = old.remove(key(child.getValue()));
+            if (mirror == null) {
+                if (added.size() + old.size() >= budget) {
+                    complete = false; // left for the next pulse
+                    continue;
+                }
+                mirror = newItem(child);
+                added.add(mirror);
+            }
+            updated.add(mirror);
+        }
+        if (!old.isEmpty()) {
+            for (TreeItem<Path> removed : old.values())
+                forget(removed);
+            if (added.isEmpty())
+                children.removeAll(new HashSet<>(old.values()));
+            else
+                children.setAll(updated);
+        } else if (!added.isEmpty()) {
+            if (updated.subList(0, children.size()).equals(children))
+                children.addAll(added); // the common case, new files after the ones shown
+            else
+                children.setAll(updated);
+        }
+        if (!complete) {
+            dirty.add(directory);
+            return 0;
+        }
+        return Math.max(0, budget - added.size() - old.size());
+    }
+
+    private PathTreeItem newItem(TreeItem<Path> of) {
+        final boolean directory = of instanceof PathTreeItem ? ((PathTreeItem) of).isDirectory() : !of.isLeaf();
+        final PathTreeItem item = new PathTreeItem(of.getValue(), directory, this::load);
+        if (directory)
+            items.put(key(of.getValue()), item);
+        return item;
+    }
+
+    private void load(PathTreeItem item) {
+        final List<TreeItem<Path>> children = new ArrayList<>();
+        for (TreeItem<Path> child : workspace.getChildItems(item.getValue()))
+            children.add(newItem(child));
+        item.getChildren().setAll(children);
+    }
+
+    /**
+     * Drops a removed item, and whatever was shown under it, from the items
+     */
+    private void forget(TreeItem<Path> item) {
+        if (!(item instanceof PathTreeItem) || !((PathTreeItem) item).isDirectory())
+            return;
+        items.remove(key(item.getValue()), item);
+        if (((PathTreeItem) item).isLoaded()) {
+            for (TreeItem<Path> child : item.getChildren())
+                forget(child);
+        }
+    }
+
+    private static Path key(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Runs a batch on the FX thread at the start of the next pulse, before the scene is laid out, or on the fallback
+     * thread if the FX toolkit is not running
+     */
+    private static void nextPulse(Runnable batch) {
+        try {
+            Platform.runLater(() -> new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    stop();
+                    batch.run();
+                }
+            }.start());
+        } catch (IllegalStateException e) {
+            fallback.execute(batch);
+        }
+    }
+}
@@ -9,14 +9,19 @@ import javafx.scene.image.ImageView;
 import java.io.File;
 import java.nio.file.*;
 import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * The WorkspaceViewer class acts as the graphical UI wrapper for a Workspace.
  *
  * Workspace specific modification can be done by calling {@link #getWorkspace()}, which returns a {@link Workspace} object
  *
+ * Cells show the name and icon cached on each {@link PathTreeItem}, so scrolling neither touches the filesystem nor
+ * allocates new graphics.
+ *
+ * The tree shown is a {@link WorkspaceTreeBridge} mirror of the workspace, updated at most once per pulse.
+ *
+ * Viewing a lazy Workspace (see {@link Workspace#Workspace(File, boolean)}) only lists the directories the user expands.
+ *
  * @see #getWorkspace()
  * @see Workspace
  *
@@ -25,6 +30,7 @@ import java.util.regex.Pattern;
 public class WorkspaceViewer extends TreeView<Path> {
 
     private Workspace workspace;
+    private WorkspaceTreeBridge bridge;
     private static final HashMap<String, Image> fileGraphics = initFileGraphics();
     private static final String generalFileExtension = ".*";
 
@@ -67,12 +73,23 @@ public class WorkspaceViewer extends TreeView<Path> {
         return new Image(App.toResourceURL(resource).toExternalForm(), length, length, true, true);
     }
 
+    /**
+     * Shows a workspace, through a {@link WorkspaceTreeBridge} so that the tree shown is only changed on the FX thread
+     *
+     * @param workspace the workspace to view or null for an empty workspace
+     */
     public void setWorkspace(Workspace workspace) {
+        if (bridge != null)
+            bridge.detach();
         this.workspace = workspace;
+        bridge = null;
         if (workspace != null) {
-            TreeItem<Path> root = workspace.getRoot();
+            bridge = new WorkspaceTreeBridge(workspace);
+            TreeItem<Path> root = bridge.getRoot();
             root.setExpanded(true);
             setRoot(root);
+        } else {
+            setRoot(null);
         }
     }
 
@@ -81,7 +98,10 @@ public class WorkspaceViewer extends TreeView<Path> {
      * directory image: https://www.freeiconspng.com/img/12404
      * file image (I modified all files off this one): https://pixabay.com/illustrations/file-icon-vector-file-jpeg-icon-3671169/
      */
-    private static class TreeCellPathSkin extends TreeCell<Path> {
+    static class TreeCellPathSkin extends TreeCell<Path> {
+
+        // reused for every item the cell shows
+        private final ImageView graphic = new ImageView();
 
         @Override
         protected void updateItem(Path path, boolean isEmpty) {
@@ -93,26 +113,24 @@ public class WorkspaceViewer extends TreeView<Path> {
                 return;
             }
 
-            setText(path.getFileName().toString());
-            setGraphic(getFileGraphic(path));
+            final TreeItem<Path> item = getTreeItem();
+            if (item instanceof PathTreeItem) {
+                final PathTreeItem pathItem = (PathTreeItem) item;
+                setText(pathItem.getName());
+                graphic.setImage(getFileGraphic(pathItem.isDirectory() ? File.separator : pathItem.getExtension()));
+            } else {
+                // not from a Workspace, so the filesystem has to be asked
+                final String name = path.getFileName().toString();
+                setText(name);
+                graphic.setImage(getFileGraphic(Files.isDirectory(path) ? File.separator : PathTreeItem.extensionOf(name)));
+            }
+            if (getGraphic() != graphic)
+                setGraphic(graphic);
         }
 
-        private ImageView getFileGraphic(Path path) {
-            final String extension = getExtension(path);
+        private Image getFileGraphic(String extension) {
             final Image image = fileGraphics.get(extension);
-            return image != null ? new ImageView(image) : new ImageView(fileGraphics.get(generalFileExtension));
-        }
-
-        private String getExtension(Path path) {
-            if (path.toFile().isDirectory())
-                return File.separator;
-
-            final Pattern extension = Pattern.compile("\\.+.+$");
-            final Matcher matcher = extension.matcher(path.getFileName().toString());
-            if (matcher.find())
-                return matcher.group();
-
-            return generalFileExtension;
+            return image != null ? image : fileGraphics.get(generalFileExtension);
         }
 
     }
@@ -2,10 +2,15 @@ module com.sdc.tthree.sdcide {
     requires transitive javafx.controls;
     requires transitive javafx.fxml;
     requires transitive javafx.graphics;
+    requires java.compiler;
+    requires java.management;
+    requires jdk.jfr;
 
     requires org.controlsfx.controls;
     requires org.kordamp.bootstrapfx.core;
     requires org.fxmisc.richtext;
+    requires flowless;
+    requires reactfx;
 
     opens com.sdc.three.ide to javafx.fxml;
     exports com.sdc.three.ide;